@@ -0,0 +1,91 @@
+package org.markski.blocklog;
+
+import org.bukkit.block.data.BlockData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-thread cost of queuing one placed block: serializing its block data there, as the listeners did before,
+ * against queuing the captured state for the database thread to serialize. The state is a stand-in whose
+ * {@code getAsString} builds the property string the way the server does, from the state's property values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlockDataCaptureBenchmark {
+    private IngestRing ring;
+    private BlockData stairs;
+    private long nextId;
+
+    private final UUID player = UUID.randomUUID();
+
+    @Setup
+    public void setUp() {
+        ring = new IngestRing(1024);
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("facing", "north");
+        properties.put("half", "bottom");
+        properties.put("shape", "straight");
+        properties.put("waterlogged", "false");
+        stairs = state("minecraft:oak_stairs", properties);
+    }
+
+    @Benchmark
+    public long serializeOnServerThread() {
+        return queue(stairs.getAsString(), null);
+    }
+
+    @Benchmark
+    public long captureState() {
+        return queue(null, stairs);
+    }
+
+    private long queue(String blockData, BlockData blockState) {
+        long position = ring.claim(1);
+        ring.putEvent(position, nextId++, player, "Builder", "world", 10, 64, -10, "OAK_STAIRS", blockData,
+                blockState, null, BlockActionType.PLACED.getCode(), 0, nextId);
+        ring.publish(position);
+        ring.release(ring.readable(1));
+        return position;
+    }
+
+    /** A block state that serializes like the server's: the key, then its properties in brackets. */
+    private static BlockData state(String key, Map<String, String> properties) {
+        return (BlockData) Proxy.newProxyInstance(BlockData.class.getClassLoader(), new Class<?>[] {BlockData.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getAsString" -> {
+                        StringBuilder out = new StringBuilder(key).append('[');
+                        boolean first = true;
+                        for (Map.Entry<String, String> property : properties.entrySet()) {
+                            if (!first) {
+                                out.append(',');
+                            }
+                            out.append(property.getKey()).append('=').append(property.getValue());
+                            first = false;
+                        }
+                        yield out.append(']').toString();
+                    }
+                    case "hashCode" -> properties.hashCode();
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> key;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
@@ -0,0 +1,155 @@
+package org.markski.blocklog;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One hopper transfer into a chest: the free room looked up through {@link CapacityTracker} against the
+ * {@link CapacityTracker#scan} the listeners ran on every transfer before. The chest copies its stacks on every
+ * {@code getStorageContents} call, as the server's does. Each transfer advances the tick by a hopper's cooldown,
+ * so cached entries expire and are rebuilt as often as they would be on a server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CapacityTrackerBenchmark {
+    private static final int HOPPER_COOLDOWN_TICKS = 8;
+
+    // A single or a double chest.
+    @Param({"27", "54"})
+    public int slots;
+
+    // How much of the chest holds stacks of other materials. Full leaves one slot free.
+    @Param({"empty", "half", "full"})
+    public String fill;
+
+    private World world;
+    private Inventory chest;
+    private ItemStack moved;
+    private CapacityTracker tracker;
+    private int tick;
+
+    @Setup
+    public void setUp() {
+        world = proxy(World.class, (method, args) -> method.equals("getUID") ? new UUID(1L, 1L) : null);
+        ItemStack[] contents = new ItemStack[slots];
+        Material[] fillers = {Material.COBBLESTONE, Material.DIRT, Material.OAK_LOG, Material.SAND};
+        int filled = switch (fill) {
+            case "half" -> slots / 2;
+            case "full" -> slots - 1;
+            default -> 0;
+        };
+        for (int slot = 0; slot < filled; slot++) {
+            contents[slot] = new Stack(fillers[slot % fillers.length], 32);
+        }
+        chest = chest(contents, new Location(world, 100, 64, -200));
+        moved = new Stack(Material.IRON_INGOT, 1);
+        tracker = new CapacityTracker();
+    }
+
+    @Benchmark
+    public int scan() {
+        return CapacityTracker.scan(chest, moved, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public int tracked() {
+        tick += HOPPER_COOLDOWN_TICKS;
+        int free = tracker.capacity(chest, moved, tick);
+        tracker.added(chest, moved, Math.min(1, free));
+        return free;
+    }
+
+    /** A chest that hands out fresh copies of its stacks, as the server's does. */
+    private static Inventory chest(ItemStack[] contents, Location location) {
+        return proxy(Inventory.class, (method, args) -> switch (method) {
+            case "getStorageContents", "getContents" -> copy(contents);
+            case "getMaxStackSize" -> 64;
+            case "getSize" -> contents.length;
+            case "getLocation" -> location.clone();
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private static ItemStack[] copy(ItemStack[] contents) {
+        ItemStack[] copy = new ItemStack[contents.length];
+        for (int slot = 0; slot < contents.length; slot++) {
+            if (contents[slot] != null) {
+                copy[slot] = new Stack(contents[slot].getType(), contents[slot].getAmount());
+            }
+        }
+        return copy;
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    /** The few methods the tracker calls, with identity equality like the server's objects. */
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> type.getSimpleName();
+                    default -> handler.invoke(method.getName(), args);
+                }));
+    }
+
+    /** A stack without meta. The server's own cannot be created without a running server. */
+    private static final class Stack extends ItemStack {
+        private final Material type;
+        private final int amount;
+
+        Stack(Material type, int amount) {
+            this.type = type;
+            this.amount = amount;
+        }
+
+        @Override
+        public Material getType() {
+            return type;
+        }
+
+        @Override
+        public int getAmount() {
+            return amount;
+        }
+
+        @Override
+        public int getMaxStackSize() {
+            return 64;
+        }
+
+        @Override
+        public boolean hasItemMeta() {
+            return false;
+        }
+
+        @Override
+        public boolean isSimilar(ItemStack stack) {
+            return stack != null && stack.getType() == type && !stack.hasItemMeta();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.markski.blocklog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * One flush under each {@code durability.mode}: a batch of events is published to the ingest ring and written to a
+ * partition built from {@link PartitionSchema} in one transaction, the way the writer does it.
+ * <ul>
+ *     <li>{@code memory}: the commit alone, with {@code synchronous=NORMAL}.</li>
+ *     <li>{@code journaled}: the {@link IngestJournal} thread copies the batch to its segment, and the flush waits
+ *     for the fsync before it writes, as a requested flush does. Segments are trimmed after every
+ *     checkpoint.</li>
+ *     <li>{@code full}: the same, with {@code synchronous=FULL} on the commit and segments trimmed after every
+ *     flush.</li>
+ * </ul>
+ * The score is the time from publishing the batch to its commit. A scheduled flush only writes what the journal has
+ * synced by then, so the journal's wait is paid as latency rather than on every batch; this measures the worst case
+ * of a batch that must be durable now. The files are created again for every iteration under
+ * {@code build/jmh-data}, so the result depends on the disk that folder is on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurabilityBenchmark {
+    private static final long SEED = 42L;
+    private static final long START = 1_760_000_000_000L;
+    private static final int SPREAD = 2000;
+    // The plugin's defaults.
+    private static final int RING_CAPACITY = 1 << 16;
+    private static final long SEGMENT_BYTES = 8L * 1024 * 1024;
+    private static final long SYNC_MILLIS = 50L;
+    private static final int CHECKPOINT_INTERVAL = 10;
+    private static final long SYNC_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Param({"memory", "journaled", "full"})
+    public String mode;
+
+    @Param({"1000", "20000"})
+    public int batchSize;
+
+    private File dir;
+    private Connection c;
+    private final PreparedStatement[] inserts = new PreparedStatement[PartitionSchema.INSERT_ROWS.length];
+    private IngestRing ring;
+    private SpillFile spill;
+    private IngestJournal journal;
+    private UUID[] players;
+    private int[] xs;
+    private int[] zs;
+    private long nextId;
+    private int flushes;
+
+    @Setup(Level.Trial)
+    public void setUpData() {
+        Random random = new Random(SEED);
+        players = new UUID[16];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        xs = new int[batchSize];
+        zs = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            xs[i] = random.nextInt(SPREAD) - SPREAD / 2;
+            zs[i] = random.nextInt(SPREAD) - SPREAD / 2;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws SQLException, IOException {
+        dir = new File("build/jmh-data/durability-" + mode);
+        delete();
+        if (!dir.mkdirs()) {
+            throw new IllegalStateException("Could not create " + dir);
+        }
+        c = DriverManager.getConnection("jdbc:sqlite:" + new File(dir, "events.sqlite").getPath());
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            stmt.execute(mode.equals("full") ? "PRAGMA synchronous=FULL;" : "PRAGMA synchronous=NORMAL;");
+            for (String sql : PartitionSchema.createTableSql("main")) {
+                stmt.execute(sql);
+            }
+        }
+        String head = PartitionSchema.EVENTS_INSERT_SQL.formatted("main");
+        for (int size = 0; size < inserts.length; size++) {
+            inserts[size] = c.prepareStatement(PartitionSchema.multiRowInsert(
+                    head, PartitionSchema.EVENT_COLUMNS, PartitionSchema.INSERT_ROWS[size]));
+        }
+        c.setAutoCommit(false);
+
+        ring = new IngestRing(RING_CAPACITY);
+        spill = new SpillFile(new File(dir, "queue-spill.bin"), Long.MAX_VALUE);
+        if (!mode.equals("memory")) {
+            journal = new IngestJournal(new File(dir, "journal"), ring, spill, SYNC_MILLIS, SEGMENT_BYTES,
+                    Logger.getLogger(DurabilityBenchmark.class.getName()));
+            journal.start(ring.head());
+        }
+        nextId = START << 16;
+        flushes = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws SQLException {
+        if (journal != null) {
+            journal.stop();
+            journal = null;
+        }
+        spill.close();
+        c.close();
+        delete();
+    }
+
+    @Benchmark
+    public int flush() throws SQLException {
+        long start = ring.claim(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            long id = nextId++;
+            ring.putEvent(start + i, id, players[i & (players.length - 1)], "Builder", "world", xs[i], 64, zs[i],
+                    "STONE", "minecraft:stone", null, null, BlockActionType.PLACED.getCode(), 0, id >>> 16);
+        }
+        ring.publishAll(start, batchSize);
+
+        if (journal != null) {
+            journal.awaitSynced(start + batchSize, SYNC_TIMEOUT_MILLIS);
+            if (journal.syncedPosition() < start + batchSize) {
+                throw new IllegalStateException("Journal did not sync the batch.");
+            }
+        }
+
+        int remaining = batchSize;
+        long position = start;
+        for (int size = 0; size < PartitionSchema.INSERT_ROWS.length; size++) {
+            int chunk = PartitionSchema.INSERT_ROWS[size];
+            PreparedStatement ps = inserts[size];
+            while (remaining >= chunk) {
+                for (int row = 0; row < chunk; row++) {
+                    bind(ps, row * PartitionSchema.EVENT_COLUMNS, position++);
+                }
+                ps.executeUpdate();
+                remaining -= chunk;
+            }
+        }
+        c.commit();
+        ring.release(batchSize);
+
+        flushes++;
+        if (journal != null) {
+            if (mode.equals("full")) {
+                journal.trim(ring.head());
+            } else if (flushes % CHECKPOINT_INTERVAL == 0) {
+                try (Statement stmt = c.createStatement()) {
+                    stmt.execute("PRAGMA wal_checkpoint(PASSIVE);");
+                }
+                journal.trim(ring.head());
+            }
+        }
+        return batchSize;
+    }
+
+    private void bind(PreparedStatement ps, int offset, long position) throws SQLException {
+        ps.setLong(offset + 1, ring.id(position));
+        UUID player = ring.playerUuid(position);
+        ps.setBytes(offset + 2, ByteBuffer.allocate(16)
+                .putLong(player.getMostSignificantBits())
+                .putLong(player.getLeastSignificantBits())
+                .array());
+        ps.setInt(offset + 3, 1);
+        ps.setLong(offset + 4, BlockPos.pack(ring.x(position), ring.y(position), ring.z(position)));
+        ps.setInt(offset + 5, 1);
+        ps.setInt(offset + 6, 1);
+        ps.setString(offset + 7, ring.rollbackSkipReason(position));
+        ps.setInt(offset + 8, ring.action(position));
+        ps.setLong(offset + 9, ring.createdAt(position));
+        ps.setNull(offset + 10, Types.INTEGER);
+    }
+
+    private void delete() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IllegalStateException("Could not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.markski.blocklog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One flush's events written to the staging table of a partition built from {@link PartitionSchema}, in one
+ * transaction: with the writer's cached multi-row statements of {@link PartitionSchema#INSERT_ROWS} rows, against
+ * one single-row statement and {@code addBatch}, as the writer did before. Both bind the same values. The
+ * database is WAL with {@code synchronous=NORMAL}, like the plugin's, and is created again for every iteration so
+ * both start from an empty table. The batch sizes are the default {@code flush.min-batch-size} and
+ * {@code flush.max-batch-size}, and an odd size that needs every statement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InsertBatchBenchmark {
+    private static final long SEED = 42L;
+    private static final long START = 1_760_000_000_000L;
+    private static final int SPREAD = 2000;
+
+    @Param({"293", "1000", "20000"})
+    public int batchSize;
+
+    private File file;
+    private Connection c;
+    private final PreparedStatement[] multiRow = new PreparedStatement[PartitionSchema.INSERT_ROWS.length];
+    private PreparedStatement singleRow;
+    private byte[][] players;
+    private long[] positions;
+    private int[] types;
+    private long nextId;
+
+    @Setup(Level.Trial)
+    public void setUpData() {
+        Random random = new Random(SEED);
+        players = new byte[16][];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new byte[16];
+            random.nextBytes(players[i]);
+        }
+        positions = new long[batchSize];
+        types = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            positions[i] = BlockPos.pack(random.nextInt(SPREAD) - SPREAD / 2, random.nextInt(128),
+                    random.nextInt(SPREAD) - SPREAD / 2);
+            types[i] = random.nextInt(500);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws SQLException {
+        File dir = new File("build/jmh-data");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Could not create " + dir);
+        }
+        file = new File(dir, "insert-" + batchSize + ".sqlite");
+        delete();
+        c = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            stmt.execute("PRAGMA synchronous=NORMAL;");
+            for (String sql : PartitionSchema.createTableSql("main")) {
+                stmt.execute(sql);
+            }
+        }
+        String head = PartitionSchema.EVENTS_INSERT_SQL.formatted("main");
+        for (int size = 0; size < multiRow.length; size++) {
+            multiRow[size] = c.prepareStatement(PartitionSchema.multiRowInsert(
+                    head, PartitionSchema.EVENT_COLUMNS, PartitionSchema.INSERT_ROWS[size]));
+        }
+        singleRow = c.prepareStatement(PartitionSchema.multiRowInsert(head, PartitionSchema.EVENT_COLUMNS, 1));
+        c.setAutoCommit(false);
+        nextId = START << 16;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws SQLException {
+        c.close();
+        delete();
+    }
+
+    @Benchmark
+    public long multiRow() throws SQLException {
+        long first = nextId;
+        int remaining = batchSize;
+        int next = 0;
+        for (int size = 0; size < PartitionSchema.INSERT_ROWS.length; size++) {
+            int chunk = PartitionSchema.INSERT_ROWS[size];
+            PreparedStatement ps = multiRow[size];
+            while (remaining >= chunk) {
+                for (int row = 0; row < chunk; row++) {
+                    bind(ps, row * PartitionSchema.EVENT_COLUMNS, next++);
+                }
+                ps.executeUpdate();
+                remaining -= chunk;
+            }
+        }
+        c.commit();
+        return nextId - first;
+    }
+
+    @Benchmark
+    public long singleRowBatch() throws SQLException {
+        long first = nextId;
+        for (int i = 0; i < batchSize; i++) {
+            bind(singleRow, 0, i);
+            singleRow.addBatch();
+        }
+        singleRow.executeBatch();
+        c.commit();
+        return nextId - first;
+    }
+
+    private void bind(PreparedStatement ps, int offset, int row) throws SQLException {
+        long id = nextId++;
+        ps.setLong(offset + 1, id);
+        ps.setBytes(offset + 2, players[row & (players.length - 1)]);
+        ps.setInt(offset + 3, 1);
+        ps.setLong(offset + 4, positions[row]);
+        ps.setInt(offset + 5, types[row]);
+        ps.setInt(offset + 6, types[row] * 4);
+        ps.setString(offset + 7, null);
+        ps.setInt(offset + 8, row & 1);
+        ps.setLong(offset + 9, id >>> 16);
+        ps.setNull(offset + 10, Types.INTEGER);
+    }
+
+    private void delete() {
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            File stale = new File(file.getPath() + suffix);
+            if (stale.exists() && !stale.delete()) {
+                throw new IllegalStateException("Could not delete " + stale);
+            }
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package org.markski.blocklog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rollback candidate selection on a synthetic history, with each of the event layouts and plans the plugin has used:
+ * <ul>
+ *     <li>{@code xyz}: a rowid table indexed on (world_id, x, y, z), before events were clustered by position.</li>
+ *     <li>{@code chunkKey}: events clustered by packed position, with a (world_id, chunk_key, created_at) index
+ *     searched as one key range per column of chunks.</li>
+ *     <li>{@code rtree}: the clustered events without the chunk key, with candidates found through an R*Tree over
+ *     (world, x, y, z, time).</li>
+ *     <li>{@code playerIndex}: the plugin's own rollback statements from {@link PartitionSchema}, on the same
+ *     database, matching the box against the primary key held in the player index before reading any event.</li>
+ * </ul>
+ * Each layout gets its own database file, generated once per row count under {@code build/jmh-data} from a fixed
+ * seed and reused by later runs. The database of the last two is built from {@link PartitionSchema} and filled
+ * the way the writer fills it: every event goes through the staging insert and all but the newest
+ * {@value #RECENT_ROWS} are moved on by the merge, so the staging table holds what it averages between merges
+ * at the default {@code storage.merge-rows}. The older layouts had no staging table. Players build at sites spread
+ * around spawn, so a rollback box holds the history of its own player and of a few neighbours, and one more
+ * account edits at every site. Queries cycle through a fixed list of players and sites; each selects what
+ * {@code /bkl rollback} would for one player, a radius of 256 and the last 72 hours of a 30-day history, with the
+ * material and block state names joined in as the plugin does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RollbackQueryBenchmark {
+    private static final long SEED = 42L;
+    private static final int PLAYERS = 500;
+    private static final int SITES_PER_PLAYER = 4;
+    private static final int HEAVY_PLAYER = PLAYERS;
+    private static final int SPAWN_SPREAD = 3000;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long HISTORY_MILLIS = 30 * DAY_MILLIS;
+    private static final long ROLLBACK_MILLIS = 72L * 60 * 60 * 1000;
+    private static final long START = 1_760_000_000_000L;
+    private static final int RADIUS = 256;
+    private static final int MIN_Y = -64;
+    private static final int MAX_Y = 319;
+    // BklCommand.MAX_ROLLBACK_ENTRIES + 1, as the command asks for.
+    private static final int LIMIT = 50001;
+    private static final int QUERIES = 64;
+    // Half of the default storage.merge-rows.
+    private static final int RECENT_ROWS = 10_000;
+    private static final int MATERIALS = 500;
+    private static final int BLOCK_STATES = 2000;
+    // Stored as user_version; databases generated with another layout are built again.
+    private static final int GENERATED_VERSION = 2;
+
+    @Param({"1000000"})
+    public int rows;
+
+    // Whose edits are rolled back: a player with a share like everyone else's, or the one account behind a fifth of
+    // the history, such as a farm or a bot, with edits at every site.
+    @Param({"typical", "heavy"})
+    public String target;
+
+    private Connection xyz;
+    private Connection chunkKey;
+    private Connection rtree;
+    private PreparedStatement xyzQuery;
+    private PreparedStatement rtreeQuery;
+    private PreparedStatement playerIndexQuery;
+    private PreparedStatement playerIndexGroupQuery;
+    private Query[] queries;
+    private int next;
+
+    private record Query(byte[] player, int x, int y, int z) {}
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        File dir = new File("build/jmh-data");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Could not create " + dir);
+        }
+        File[] files = {
+                new File(dir, "rollback-" + rows + "-xyz.sqlite"),
+                new File(dir, "rollback-" + rows + "-chunk.sqlite"),
+                new File(dir, "rollback-" + rows + "-rtree.sqlite")
+        };
+        openAll(files);
+        if (!generated(xyz) || !generated(chunkKey) || !generated(rtree)) {
+            tearDown();
+            for (File file : files) {
+                for (String suffix : new String[] {"", "-wal", "-shm"}) {
+                    File stale = new File(file.getPath() + suffix);
+                    if (stale.exists() && !stale.delete()) {
+                        throw new IllegalStateException("Could not delete " + stale);
+                    }
+                }
+            }
+            openAll(files);
+            generate();
+        }
+
+        xyzQuery = xyz.prepareStatement("""
+                SELECT e.id, e.x, e.y, e.z, m.value AS block_type, bs.value AS block_data, e.rollback_skip_reason,
+                       e.player_uuid, e.action, e.created_at
+                FROM events e
+                JOIN materials m ON m.id = e.block_type_id
+                JOIN block_states bs ON bs.id = e.block_data_id
+                WHERE e.world_id = ?
+                  AND e.player_uuid = ?
+                  AND e.created_at >= ?
+                  AND e.x BETWEEN ? AND ?
+                  AND e.y BETWEEN ? AND ?
+                  AND e.z BETWEEN ? AND ?
+                  AND e.action IN (?, ?)
+                ORDER BY e.created_at DESC, e.rowid DESC
+                LIMIT ?;
+                """);
+        rtreeQuery = rtree.prepareStatement("""
+                SELECT e.id, e.pos, m.value AS block_type, bs.value AS block_data, e.rollback_skip_reason,
+                       e.player_uuid, e.action, e.created_at
+                FROM (
+                    SELECT e.id, e.player_uuid, e.world_id, e.pos, e.block_type_id, e.block_data_id,
+                           e.rollback_skip_reason, e.action, e.created_at
+                    FROM events_rtree r
+                    CROSS JOIN events e ON e.id = r.id
+                    WHERE r.max_world >= ? AND r.min_world <= ?
+                      AND r.max_x >= ? AND r.min_x <= ?
+                      AND r.max_y >= ? AND r.min_y <= ?
+                      AND r.max_z >= ? AND r.min_z <= ?
+                      AND r.max_time >= ?
+                    UNION ALL
+                    SELECT id, player_uuid, world_id, pos, block_type_id, block_data_id,
+                           rollback_skip_reason, action, created_at
+                    FROM events_recent
+                ) e
+                JOIN materials m ON m.id = e.block_type_id
+                JOIN block_states bs ON bs.id = e.block_data_id
+                WHERE e.world_id = ?
+                  AND e.player_uuid = ?
+                  AND e.created_at >= ?
+                  AND %1$s BETWEEN ? AND ?
+                  AND %2$s BETWEEN ? AND ?
+                  AND %3$s BETWEEN ? AND ?
+                  AND e.action IN (?, ?)
+                ORDER BY e.created_at DESC, e.id DESC
+                LIMIT ?;
+                """.formatted(BlockPos.SQL_X, BlockPos.SQL_Y, BlockPos.SQL_Z));
+
+        playerIndexQuery = rtree.prepareStatement(PartitionSchema.rollbackEventsSql("main"));
+        playerIndexGroupQuery = rtree.prepareStatement(PartitionSchema.rollbackGroupsSql("main"));
+
+        // Rollback targets: a player and one of their sites, picked the same way every run.
+        Random random = new Random(SEED + 1);
+        Site[] sites = sites();
+        queries = new Query[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            Query query;
+            if (target.equals("heavy")) {
+                Site site = sites[random.nextInt(sites.length)];
+                query = new Query(uuid(HEAVY_PLAYER), site.x(), site.y(), site.z());
+            } else {
+                int player = random.nextInt(PLAYERS);
+                Site site = sites[player * SITES_PER_PLAYER + random.nextInt(SITES_PER_PLAYER)];
+                query = new Query(uuid(player), site.x(), site.y(), site.z());
+            }
+            queries[i] = query;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        for (Connection c : new Connection[] {xyz, chunkKey, rtree}) {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public int xyz() throws SQLException {
+        Query q = nextQuery();
+        long from = START + HISTORY_MILLIS - ROLLBACK_MILLIS;
+        int param = 1;
+        xyzQuery.setInt(param++, 1);
+        xyzQuery.setBytes(param++, q.player());
+        xyzQuery.setLong(param++, from);
+        xyzQuery.setInt(param++, q.x() - RADIUS);
+        xyzQuery.setInt(param++, q.x() + RADIUS);
+        xyzQuery.setInt(param++, Math.max(MIN_Y, q.y() - RADIUS));
+        xyzQuery.setInt(param++, Math.min(MAX_Y, q.y() + RADIUS));
+        xyzQuery.setInt(param++, q.z() - RADIUS);
+        xyzQuery.setInt(param++, q.z() + RADIUS);
+        xyzQuery.setInt(param++, BlockActionType.PLACED.getCode());
+        xyzQuery.setInt(param++, BlockActionType.BROKEN.getCode());
+        xyzQuery.setInt(param, LIMIT);
+        return count(xyzQuery);
+    }
+
+    @Benchmark
+    public int chunkKey() throws SQLException {
+        Query q = nextQuery();
+        long from = START + HISTORY_MILLIS - ROLLBACK_MILLIS;
+        int minX = q.x() - RADIUS;
+        int maxX = q.x() + RADIUS;
+        int minZ = q.z() - RADIUS;
+        int maxZ = q.z() + RADIUS;
+        // As user-021 built it: the box as chunk key ranges, one per column of chunks along x.
+        int minChunkX = minX >> 4;
+        int maxChunkX = maxX >> 4;
+        String chunkRanges = String.join(" OR ",
+                Collections.nCopies(maxChunkX - minChunkX + 1, "e.chunk_key BETWEEN ? AND ?"));
+        try (PreparedStatement ps = chunkKey.prepareStatement("""
+                SELECT e.id, e.pos, m.value AS block_type, bs.value AS block_data, e.rollback_skip_reason,
+                       e.player_uuid, e.action, e.created_at
+                FROM events e
+                JOIN materials m ON m.id = e.block_type_id
+                JOIN block_states bs ON bs.id = e.block_data_id
+                WHERE e.world_id = ?
+                  AND (%1$s)
+                  AND e.player_uuid = ?
+                  AND e.created_at >= ?
+                  AND %2$s BETWEEN ? AND ?
+                  AND %3$s BETWEEN ? AND ?
+                  AND %4$s BETWEEN ? AND ?
+                  AND e.action IN (?, ?)
+                ORDER BY e.created_at DESC, e.id DESC
+                LIMIT ?;
+                """.formatted(chunkRanges, BlockPos.SQL_X, BlockPos.SQL_Y, BlockPos.SQL_Z))) {
+            int param = 1;
+            ps.setInt(param++, 1);
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                ps.setLong(param++, chunkKeyOf(chunkX, minZ >> 4));
+                ps.setLong(param++, chunkKeyOf(chunkX, maxZ >> 4));
+            }
+            ps.setBytes(param++, q.player());
+            ps.setLong(param++, from);
+            ps.setInt(param++, minX);
+            ps.setInt(param++, maxX);
+            ps.setInt(param++, Math.max(MIN_Y, q.y() - RADIUS));
+            ps.setInt(param++, Math.min(MAX_Y, q.y() + RADIUS));
+            ps.setInt(param++, minZ);
+            ps.setInt(param++, maxZ);
+            ps.setInt(param++, BlockActionType.PLACED.getCode());
+            ps.setInt(param++, BlockActionType.BROKEN.getCode());
+            ps.setInt(param, LIMIT);
+            return count(ps);
+        }
+    }
+
+    @Benchmark
+    public int rtree() throws SQLException {
+        Query q = nextQuery();
+        long from = START + HISTORY_MILLIS - ROLLBACK_MILLIS;
+        int minY = Math.max(MIN_Y, q.y() - RADIUS);
+        int maxY = Math.min(MAX_Y, q.y() + RADIUS);
+        int param = 1;
+        rtreeQuery.setInt(param++, 1);
+        rtreeQuery.setInt(param++, 1);
+        rtreeQuery.setInt(param++, q.x() - RADIUS);
+        rtreeQuery.setInt(param++, q.x() + RADIUS);
+        rtreeQuery.setInt(param++, minY);
+        rtreeQuery.setInt(param++, maxY);
+        rtreeQuery.setInt(param++, q.z() - RADIUS);
+        rtreeQuery.setInt(param++, q.z() + RADIUS);
+        rtreeQuery.setLong(param++, from);
+        rtreeQuery.setInt(param++, 1);
+        rtreeQuery.setBytes(param++, q.player());
+        rtreeQuery.setLong(param++, from);
+        rtreeQuery.setInt(param++, q.x() - RADIUS);
+        rtreeQuery.setInt(param++, q.x() + RADIUS);
+        rtreeQuery.setInt(param++, minY);
+        rtreeQuery.setInt(param++, maxY);
+        rtreeQuery.setInt(param++, q.z() - RADIUS);
+        rtreeQuery.setInt(param++, q.z() + RADIUS);
+        rtreeQuery.setInt(param++, BlockActionType.PLACED.getCode());
+        rtreeQuery.setInt(param++, BlockActionType.BROKEN.getCode());
+        rtreeQuery.setInt(param, LIMIT);
+        return count(rtreeQuery);
+    }
+
+    @Benchmark
+    public int playerIndex() throws SQLException {
+        Query q = nextQuery();
+        long from = START + HISTORY_MILLIS - ROLLBACK_MILLIS;
+        int minY = Math.max(MIN_Y, q.y() - RADIUS);
+        int maxY = Math.min(MAX_Y, q.y() + RADIUS);
+        // Bound as Database.getActionsForRollback binds them.
+        int param = 1;
+        playerIndexQuery.setBytes(param++, q.player());
+        playerIndexQuery.setLong(param++, from);
+        playerIndexQuery.setString(param++, "world");
+        playerIndexQuery.setInt(param++, q.x() - RADIUS);
+        playerIndexQuery.setInt(param++, q.x() + RADIUS);
+        playerIndexQuery.setInt(param++, minY);
+        playerIndexQuery.setInt(param++, maxY);
+        playerIndexQuery.setInt(param++, q.z() - RADIUS);
+        playerIndexQuery.setInt(param++, q.z() + RADIUS);
+        playerIndexQuery.setString(param++, "world");
+        playerIndexQuery.setBytes(param++, q.player());
+        playerIndexQuery.setLong(param++, from);
+        playerIndexQuery.setInt(param++, q.x() - RADIUS);
+        playerIndexQuery.setInt(param++, q.x() + RADIUS);
+        playerIndexQuery.setInt(param++, minY);
+        playerIndexQuery.setInt(param++, maxY);
+        playerIndexQuery.setInt(param++, q.z() - RADIUS);
+        playerIndexQuery.setInt(param++, q.z() + RADIUS);
+        playerIndexQuery.setInt(param++, BlockActionType.PLACED.getCode());
+        playerIndexQuery.setInt(param++, BlockActionType.BROKEN.getCode());
+        playerIndexQuery.setInt(param, LIMIT);
+        int found = count(playerIndexQuery);
+
+        param = 1;
+        playerIndexGroupQuery.setString(param++, "world");
+        playerIndexGroupQuery.setBytes(param++, q.player());
+        playerIndexGroupQuery.setLong(param++, from);
+        playerIndexGroupQuery.setInt(param++, q.x() - RADIUS);
+        playerIndexGroupQuery.setInt(param++, q.x() + RADIUS);
+        playerIndexGroupQuery.setInt(param++, minY);
+        playerIndexGroupQuery.setInt(param++, maxY);
+        playerIndexGroupQuery.setInt(param++, q.z() - RADIUS);
+        playerIndexGroupQuery.setInt(param++, q.z() + RADIUS);
+        playerIndexGroupQuery.setInt(param++, BlockActionType.PLACED.getCode());
+        playerIndexGroupQuery.setInt(param, BlockActionType.BROKEN.getCode());
+        return found + count(playerIndexGroupQuery);
+    }
+
+    private Query nextQuery() {
+        Query q = queries[next];
+        next = (next + 1) % QUERIES;
+        return q;
+    }
+
+    private static int count(PreparedStatement ps) throws SQLException {
+        int found = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private void openAll(File[] files) throws SQLException {
+        xyz = open(files[0]);
+        chunkKey = open(files[1]);
+        rtree = open(files[2]);
+    }
+
+    private static Connection open(File file) throws SQLException {
+        Connection c = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=WAL;");
+            stmt.execute("PRAGMA synchronous=NORMAL;");
+        }
+        return c;
+    }
+
+    private static boolean generated(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version;")) {
+            return rs.next() && rs.getInt(1) == GENERATED_VERSION;
+        }
+    }
+
+    private record Site(int x, int y, int z) {}
+
+    /** Build sites of every player, spread around spawn. */
+    private static Site[] sites() {
+        Random random = new Random(SEED);
+        Site[] sites = new Site[PLAYERS * SITES_PER_PLAYER];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = new Site((int) (random.nextGaussian() * SPAWN_SPREAD), 40 + random.nextInt(80),
+                    (int) (random.nextGaussian() * SPAWN_SPREAD));
+        }
+        return sites;
+    }
+
+    private static byte[] uuid(int player) {
+        return ByteBuffer.allocate(16).putLong(0x5EED000000000000L | player).putLong(player).array();
+    }
+
+    /** The main database's name tables, with every world, material and block state the history uses. */
+    private static void createDictionaries(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement()) {
+            for (String table : new String[] {"worlds", "materials", "block_states"}) {
+                stmt.execute(new InternTable(table).createTableSql());
+            }
+            stmt.execute("INSERT INTO worlds (id, value) VALUES (1, 'world'), (2, 'world_nether');");
+        }
+        try (PreparedStatement material = c.prepareStatement("INSERT INTO materials (id, value) VALUES (?, ?);");
+             PreparedStatement state = c.prepareStatement("INSERT INTO block_states (id, value) VALUES (?, ?);")) {
+            for (int i = 1; i <= MATERIALS; i++) {
+                material.setInt(1, i);
+                material.setString(2, "MATERIAL_" + i);
+                material.executeUpdate();
+            }
+            for (int i = 1; i <= BLOCK_STATES; i++) {
+                state.setInt(1, i);
+                state.setString(2, "minecraft:block_" + (i % MATERIALS) + "[state=" + i + "]");
+                state.executeUpdate();
+            }
+        }
+    }
+
+    private static long chunkKeyOf(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ + 0x80000000L);
+    }
+
+    private void generate() throws SQLException {
+        for (Connection c : new Connection[] {xyz, chunkKey, rtree}) {
+            c.setAutoCommit(false);
+            createDictionaries(c);
+        }
+        try (Statement stmt = xyz.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE events (
+                        id INTEGER PRIMARY KEY, player_uuid BLOB NOT NULL, world_id INTEGER NOT NULL,
+                        x INTEGER NOT NULL, y INTEGER NOT NULL, z INTEGER NOT NULL,
+                        block_type_id INTEGER NOT NULL, block_data_id INTEGER NOT NULL, rollback_skip_reason TEXT,
+                        action INTEGER NOT NULL, created_at INTEGER NOT NULL, cause INTEGER
+                    );
+                    """);
+            stmt.execute("CREATE INDEX idx_events_world_xyz ON events (world_id, x, y, z);");
+            stmt.execute("CREATE INDEX idx_events_player_time ON events (player_uuid, created_at);");
+            stmt.execute("CREATE INDEX idx_events_created_at ON events (created_at);");
+        }
+        try (Statement stmt = chunkKey.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE events (
+                        id INTEGER NOT NULL, player_uuid BLOB NOT NULL, world_id INTEGER NOT NULL,
+                        pos INTEGER NOT NULL, chunk_key INTEGER NOT NULL,
+                        block_type_id INTEGER NOT NULL, block_data_id INTEGER NOT NULL, rollback_skip_reason TEXT,
+                        action INTEGER NOT NULL, created_at INTEGER NOT NULL, cause INTEGER,
+                        PRIMARY KEY (world_id, pos, created_at, id)
+                    ) WITHOUT ROWID;
+                    """);
+            stmt.execute("CREATE UNIQUE INDEX idx_events_id ON events (id);");
+            stmt.execute("CREATE INDEX idx_events_world_chunk_time ON events (world_id, chunk_key, created_at);");
+            stmt.execute("CREATE INDEX idx_events_player_time ON events (player_uuid, created_at);");
+            stmt.execute("CREATE INDEX idx_events_created_at ON events (created_at);");
+        }
+        try (Statement stmt = rtree.createStatement()) {
+            for (String sql : PartitionSchema.createTableSql("main")) {
+                stmt.execute(sql);
+            }
+            stmt.execute("""
+                    CREATE VIRTUAL TABLE events_rtree USING rtree (
+                        id, min_world, max_world, min_x, max_x, min_y, max_y, min_z, max_z, min_time, max_time
+                    );
+                    """);
+        }
+
+        Random random = new Random(SEED + 2);
+        Site[] sites = sites();
+        try (PreparedStatement xyzInsert = xyz.prepareStatement(
+                "INSERT INTO events VALUES (?, ?, ?, ?, ?, ?, ?, ?, NULL, ?, ?, NULL);");
+             PreparedStatement chunkInsert = chunkKey.prepareStatement(
+                     "INSERT INTO events VALUES (?, ?, ?, ?, ?, ?, ?, NULL, ?, ?, NULL);");
+             PreparedStatement rtreeInsert = rtree.prepareStatement(PartitionSchema.multiRowInsert(
+                     PartitionSchema.EVENTS_INSERT_SQL.formatted("main"), PartitionSchema.EVENT_COLUMNS, 1))) {
+            for (int i = 0; i < rows; i++) {
+                long id = i + 1L;
+                long createdAt = START + i * HISTORY_MILLIS / rows;
+                int player;
+                Site site;
+                if (random.nextInt(5) == 0) {
+                    player = HEAVY_PLAYER;
+                    site = sites[random.nextInt(sites.length)];
+                } else {
+                    player = random.nextInt(PLAYERS);
+                    site = sites[player * SITES_PER_PLAYER + random.nextInt(SITES_PER_PLAYER)];
+                }
+                int x = site.x() + (int) (random.nextGaussian() * 24);
+                int y = Math.max(MIN_Y, Math.min(MAX_Y, site.y() + (int) (random.nextGaussian() * 8)));
+                int z = site.z() + (int) (random.nextGaussian() * 24);
+                // A tenth of the history is in another world.
+                int world = random.nextInt(10) == 0 ? 2 : 1;
+                int blockType = 1 + random.nextInt(MATERIALS);
+                int blockData = 1 + random.nextInt(BLOCK_STATES);
+                int action = random.nextInt(20) == 0
+                        ? BlockActionType.INTERACTION.getCode()
+                        : random.nextBoolean() ? BlockActionType.PLACED.getCode() : BlockActionType.BROKEN.getCode();
+                byte[] uuid = uuid(player);
+                long pos = BlockPos.pack(x, y, z);
+
+                xyzInsert.setLong(1, id);
+                xyzInsert.setBytes(2, uuid);
+                xyzInsert.setInt(3, world);
+                xyzInsert.setInt(4, x);
+                xyzInsert.setInt(5, y);
+                xyzInsert.setInt(6, z);
+                xyzInsert.setInt(7, blockType);
+                xyzInsert.setInt(8, blockData);
+                xyzInsert.setInt(9, action);
+                xyzInsert.setLong(10, createdAt);
+                xyzInsert.executeUpdate();
+
+                chunkInsert.setLong(1, id);
+                chunkInsert.setBytes(2, uuid);
+                chunkInsert.setInt(3, world);
+                chunkInsert.setLong(4, pos);
+                chunkInsert.setLong(5, chunkKeyOf(x >> 4, z >> 4));
+                chunkInsert.setInt(6, blockType);
+                chunkInsert.setInt(7, blockData);
+                chunkInsert.setInt(8, action);
+                chunkInsert.setLong(9, createdAt);
+                chunkInsert.executeUpdate();
+
+                rtreeInsert.setLong(1, id);
+                rtreeInsert.setBytes(2, uuid);
+                rtreeInsert.setInt(3, world);
+                rtreeInsert.setLong(4, pos);
+                rtreeInsert.setInt(5, blockType);
+                rtreeInsert.setInt(6, blockData);
+                rtreeInsert.setNull(7, Types.VARCHAR);
+                rtreeInsert.setInt(8, action);
+                rtreeInsert.setLong(9, createdAt);
+                rtreeInsert.setNull(10, Types.INTEGER);
+                rtreeInsert.executeUpdate();
+            }
+        }
+        // Everything but the newest events moves on to the clustered table, as the merge leaves it.
+        for (String merge : PartitionSchema.MERGE_SQL) {
+            try (PreparedStatement ps = rtree.prepareStatement(merge.formatted("main", PartitionSchema.EVENT_FIELDS))) {
+                ps.setLong(1, rows - RECENT_ROWS);
+                ps.executeUpdate();
+            }
+        }
+        try (Statement stmt = rtree.createStatement()) {
+            // As the merge filled it.
+            stmt.execute("""
+                    INSERT INTO events_rtree
+                    SELECT id, world_id, world_id, %1$s, %1$s, %2$s, %2$s, %3$s, %3$s, created_at, created_at
+                    FROM events;
+                    """.formatted(BlockPos.SQL_X, BlockPos.SQL_Y, BlockPos.SQL_Z));
+        }
+        for (Connection c : new Connection[] {xyz, chunkKey, rtree}) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("PRAGMA user_version = " + GENERATED_VERSION + ";");
+            }
+            c.commit();
+            c.setAutoCommit(true);
+        }
+    }
+}
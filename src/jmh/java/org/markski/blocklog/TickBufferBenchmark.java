@@ -0,0 +1,190 @@
+package org.markski.blocklog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tick of server-thread events handed to the ingest ring: a claim and a publish per record, as the listeners
+ * did before, against collecting them in a {@link TickBuffer} and handing them over under one claim. Meanwhile a
+ * writer thread drains the ring and an async task keeps publishing single events, as the database thread and the
+ * explosion handlers do, so the server thread contends with both. The score of the {@code perRecord} and
+ * {@code staged} methods is the server-thread cost of one tick; the uncontended pair runs the same tick alone. A
+ * producer that finds the ring full waits for the writer, and gives up once the writer has stopped at the end of
+ * an iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class TickBufferBenchmark {
+    // Sized like the plugin's queue.
+    private static final int RING_CAPACITY = 1 << 16;
+    private static final int WRITER_BATCH = 4096;
+
+    @Param({"500"})
+    public int eventsPerTick;
+
+    private IngestRing ring;
+    private TickBuffer buffer;
+    private long nextId;
+    private long asyncId = Long.MIN_VALUE;
+
+    private final UUID player = UUID.randomUUID();
+    private final String playerName = "Builder";
+    private final String world = "world";
+    private final String blockType = "STONE";
+    private final String blockData = "minecraft:stone";
+
+    @Setup
+    public void setUp() {
+        ring = new IngestRing(RING_CAPACITY);
+        buffer = new TickBuffer(eventsPerTick);
+    }
+
+    @Benchmark
+    @Group("perRecord")
+    @GroupThreads(1)
+    public long perRecord(Control control) {
+        return publishPerRecord(control);
+    }
+
+    @Benchmark
+    @Group("perRecord")
+    @GroupThreads(1)
+    public int perRecordWriter() {
+        return drain();
+    }
+
+    @Benchmark
+    @Group("perRecord")
+    @GroupThreads(1)
+    public long perRecordAsync(Control control) {
+        return publishAsync(control);
+    }
+
+    @Benchmark
+    @Group("staged")
+    @GroupThreads(1)
+    public long staged(Control control) {
+        return publishStaged(control);
+    }
+
+    @Benchmark
+    @Group("staged")
+    @GroupThreads(1)
+    public int stagedWriter() {
+        return drain();
+    }
+
+    @Benchmark
+    @Group("staged")
+    @GroupThreads(1)
+    public long stagedAsync(Control control) {
+        return publishAsync(control);
+    }
+
+    /** The same tick with nothing else running, releasing the records right after it. */
+    @Benchmark
+    @Group("perRecordUncontended")
+    public long perRecordUncontended(Control control) {
+        long last = publishPerRecord(control);
+        drain();
+        return last;
+    }
+
+    @Benchmark
+    @Group("stagedUncontended")
+    public long stagedUncontended(Control control) {
+        long position = publishStaged(control);
+        drain();
+        return position;
+    }
+
+    private long publishPerRecord(Control control) {
+        long last = 0;
+        for (int i = 0; i < eventsPerTick; i++) {
+            long position;
+            while ((position = ring.claim(1)) < 0) {
+                if (control.stopMeasurement) {
+                    return last;
+                }
+                Thread.onSpinWait();
+            }
+            putEvent(position, i);
+            ring.publish(position);
+            last = position;
+        }
+        return last;
+    }
+
+    /** Events from an async task, such as an explosion handler, which publish per record in either case. */
+    private long publishAsync(Control control) {
+        long position;
+        while ((position = ring.claim(1)) < 0) {
+            if (control.stopMeasurement) {
+                return -1L;
+            }
+            Thread.onSpinWait();
+        }
+        ring.putEvent(position, asyncId++, player, playerName, world, 0, 64, 0, blockType, blockData, null, null,
+                BlockActionType.BROKEN.getCode(), 0, asyncId);
+        ring.publish(position);
+        return position;
+    }
+
+    private long publishStaged(Control control) {
+        for (int i = 0; i < eventsPerTick; i++) {
+            buffer.addEvent(nextId++, player, playerName, world, i, 64, -i, blockType, blockData, null, null,
+                    BlockActionType.PLACED.getCode(), 0, nextId);
+        }
+        // What Database.publishStaged does at the end of the tick.
+        int count = buffer.size();
+        long position;
+        while ((position = ring.claim(count)) < 0) {
+            if (control.stopMeasurement) {
+                buffer.clear();
+                return -1L;
+            }
+            Thread.onSpinWait();
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.copyInto(ring, position + i, i);
+        }
+        ring.publishAll(position, count);
+        buffer.clear();
+        return position;
+    }
+
+    private void putEvent(long position, int i) {
+        ring.putEvent(position, nextId++, player, playerName, world, i, 64, -i, blockType, blockData, null, null,
+                BlockActionType.PLACED.getCode(), 0, nextId);
+    }
+
+    /** Releases whatever is readable, as a flush does once its batch commits. */
+    private int drain() {
+        int readable = ring.readable(WRITER_BATCH);
+        if (readable == 0) {
+            Thread.onSpinWait();
+            return 0;
+        }
+        ring.release(readable);
+        return readable;
+    }
+}
@@ -0,0 +1,154 @@
+package org.markski.blocklog;
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Net item deltas of hoppers, furnaces and brewing stands, collected per container and actor over a time window
+ * and logged as one INTERACTION event with one transaction per material. A hopper chain then costs a bounded
+ * number of rows per window however many items pass through it. Server thread only.
+ */
+final class AutomationAggregator {
+    // Containers held at once. Reaching it writes every window early, so a huge farm cannot grow this unbounded.
+    private static final int MAX_CONTAINERS = 4096;
+
+    private final Main plugin;
+    private final long windowMillis;
+    private final Map<Key, Window> windows = new HashMap<>();
+
+    AutomationAggregator(Main plugin, long windowMillis) {
+        this.plugin = plugin;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Adds one delta to the window of a container. {@code block} is the container when the caller already has
+     * it, or null to look it up only when the container first shows up in a window.
+     */
+    void add(String worldName, int x, int y, int z, Block block, String actor, Material material, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        Key key = new Key(worldName, x, y, z, actor);
+        Window window = window(key, block);
+        if (window == null) {
+            return;
+        }
+        window.deltas.merge(material, delta, Integer::sum);
+        window.lastAt = System.currentTimeMillis();
+        if (windowMillis <= 0) {
+            flush(key);
+        }
+    }
+
+    /** Adds the deltas of one furnace or brewing step to the window of its block. */
+    void add(Block block, String actor, Map<Material, Integer> deltas) {
+        Key key = new Key(block.getWorld().getName(), block.getX(), block.getY(), block.getZ(), actor);
+        Window window = window(key, block);
+        if (window == null) {
+            return;
+        }
+        deltas.forEach((material, delta) -> window.deltas.merge(material, delta, Integer::sum));
+        window.lastAt = System.currentTimeMillis();
+        if (windowMillis <= 0) {
+            flush(key);
+        }
+    }
+
+    private Window window(Key key, Block block) {
+        Window window = windows.get(key);
+        if (window != null) {
+            return window;
+        }
+        if (block == null) {
+            World world = plugin.getServer().getWorld(key.worldName());
+            if (world == null) {
+                return null;
+            }
+            block = world.getBlockAt(key.x(), key.y(), key.z());
+        }
+        if (windows.size() >= MAX_CONTAINERS) {
+            flushAll();
+        }
+        window = new Window(block.getType().name(), block.getBlockData());
+        windows.put(key, window);
+        return window;
+    }
+
+    /** Logs every open window and starts new ones. */
+    void flushAll() {
+        if (windows.isEmpty()) {
+            return;
+        }
+        Database db = plugin.getDatabase();
+        if (db != null && db.isOpen()) {
+            windows.forEach((key, window) -> log(db, key, window));
+        }
+        windows.clear();
+    }
+
+    private void flush(Key key) {
+        Window window = windows.remove(key);
+        Database db = plugin.getDatabase();
+        if (window != null && db != null && db.isOpen()) {
+            log(db, key, window);
+        }
+    }
+
+    private static void log(Database db, Key key, Window window) {
+        if (window.deltas.values().stream().allMatch(delta -> delta == 0)) {
+            return;
+        }
+        // Each actor gets a stable UUID of its own, since the history stores a name per UUID.
+        UUID actorUuid = UUID.nameUUIDFromBytes(key.actor().getBytes(StandardCharsets.UTF_8));
+        long eventId = db.enqueueBlockAction(
+                actorUuid,
+                key.actor(),
+                key.worldName(),
+                key.x(), key.y(), key.z(),
+                window.blockType,
+                window.blockData,
+                null,
+                BlockActionType.INTERACTION,
+                window.lastAt,
+                BlockActionCause.AUTOMATION
+        );
+        window.deltas.forEach((material, delta) -> {
+            if (delta != 0) {
+                db.enqueueContainerTransaction(
+                        eventId,
+                        window.lastAt,
+                        actorUuid,
+                        key.actor(),
+                        key.worldName(),
+                        key.x(), key.y(), key.z(),
+                        material.name(),
+                        delta,
+                        window.lastAt
+                );
+            }
+        });
+    }
+
+    private record Key(String worldName, int x, int y, int z, String actor) {}
+
+    /** The block as first seen in the window, and the net delta of each material since. */
+    private static final class Window {
+        final String blockType;
+        final BlockData blockData;
+        final Map<Material, Integer> deltas = new HashMap<>();
+        long lastAt;
+
+        Window(String blockType, BlockData blockData) {
+            this.blockType = blockType;
+            this.blockData = blockData;
+        }
+    }
+}
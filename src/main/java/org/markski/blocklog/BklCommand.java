@@ -17,7 +17,7 @@ import org.jetbrains.annotations.NotNull;
 import java.security.SecureRandom;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -109,6 +109,7 @@ public class BklCommand implements CommandExecutor {
             executor.sendMessage(Messages.error("Database not available."));
             return true;
         }
+        db.publishStaged();
         db.requestFlush();
 
         boolean nowInspecting = plugin.toggleInspect(executor.getUniqueId());
@@ -195,6 +196,7 @@ public class BklCommand implements CommandExecutor {
         pendingRollbacks.remove(executor.getUniqueId());
         cancelledPreviews.remove(executor.getUniqueId());
         executor.sendMessage(Messages.info("Calculating rollback preview..."));
+        db.publishStaged();
         Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
             try {
                 db.flushPendingActionsNow();
@@ -307,6 +309,7 @@ public class BklCommand implements CommandExecutor {
         }
 
         executor.sendMessage(Messages.info("Revalidating rollback scope..."));
+        db.publishStaged();
         Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
             try {
                 db.flushPendingActionsNow();
@@ -494,9 +497,9 @@ public class BklCommand implements CommandExecutor {
         } catch (NoSuchAlgorithmException e) {
             throw new IllegalStateException("SHA-256 is unavailable", e);
         }
+        ByteBuffer idBytes = ByteBuffer.allocate(Long.BYTES);
         for (Database.RollbackEntry entry : entries) {
-            digest.update(entry.id().getBytes(StandardCharsets.UTF_8));
-            digest.update((byte) 0);
+            digest.update(idBytes.putLong(0, entry.id()).array());
             long chunkKey = ((long) (entry.x() >> 4) << 32) ^ ((entry.z() >> 4) & 0xffffffffL);
             chunks.add(chunkKey);
             if (entry.rollbackSkipReason() != null) {
@@ -510,7 +513,7 @@ public class BklCommand implements CommandExecutor {
                 unsupported,
                 chunks.size(),
                 Map.copyOf(reasons),
-                entries.getFirst().playerUuid(),
+                entries.getFirst().playerUuid().toString(),
                 HexFormat.of().formatHex(digest.digest())
         );
     }
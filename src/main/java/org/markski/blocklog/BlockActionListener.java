@@ -1,5 +1,6 @@
 package org.markski.blocklog;
 
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.event.HoverEvent;
@@ -12,6 +13,7 @@ import org.bukkit.block.BlockState;
 import org.bukkit.block.DoubleChest;
 import org.bukkit.block.TileState;
 import org.bukkit.block.data.Bisected;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -42,27 +44,59 @@ import org.bukkit.inventory.ItemStack;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Predicate;
 
 public class BlockActionListener implements Listener {
 
-    private static final String AUTOMATION_UUID = "00000000-0000-0000-0000-000000000001";
+    private static final UUID EXPLOSION_UUID = new UUID(0L, 0L);
     private static final int INSPECTION_PAGE_SIZE = 8;
+    private static final long DEFAULT_AUTOMATION_WINDOW_SECONDS = 10L;
 
     private final Main plugin;
+    private final MaterialCapabilities capabilities = MaterialCapabilities.build();
+    private final AutomationAggregator automation;
+    private final CapacityTracker capacities = new CapacityTracker();
+    // Log the net change of each container session on close, instead of working out every click, for as long as
+    // the session's player is the only one changing the container.
+    private final boolean snapshotContainers;
 
     private final Map<UUID, OpenContainerSession> openContainers = new HashMap<>();
     private final Map<UUID, PendingContainerSession> pendingContainers = new HashMap<>();
     private final Map<UUID, InspectionRequest> pendingInspections = new HashMap<>();
-    private final Map<UUID, InspectionTarget> lastInspections = new HashMap<>();
+    private final Map<UUID, InspectionState> lastInspections = new HashMap<>();
     private final Set<UUID> inspectionsInFlight = new java.util.HashSet<>();
 
     public BlockActionListener(Main plugin) {
         this.plugin = plugin;
+        this.snapshotContainers = plugin.getConfig().getBoolean("containers.snapshot-diff", false);
+        long windowSeconds = Math.max(0L, plugin.getConfig().getLong("automation.window-seconds",
+                DEFAULT_AUTOMATION_WINDOW_SECONDS));
+        this.automation = new AutomationAggregator(plugin, windowSeconds * 1000L);
+        if (windowSeconds > 0) {
+            long ticks = windowSeconds * 20L;
+            plugin.getServer().getScheduler().runTaskTimer(plugin, automation::flushAll, ticks, ticks);
+        }
+    }
+
+    /** Logs the automation deltas still being collected. Called before the database closes. */
+    public void shutdown() {
+        automation.flushAll();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onTickEnd(ServerTickEndEvent event) {
+        Database db = plugin.getDatabase();
+        if (db != null) {
+            db.publishStaged();
+        }
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
@@ -92,7 +126,12 @@ public class BlockActionListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
-        logAction(event.getPlayer(), event.getBlockPlaced(), BlockActionType.PLACED);
+        Block block = event.getBlockPlaced();
+        if (capabilities.isContainer(block.getType())) {
+            // A new container is empty, whatever was cached for one that stood here before.
+            capacities.invalidate(block);
+        }
+        logAction(event.getPlayer(), block, BlockActionType.PLACED);
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
@@ -136,18 +175,22 @@ public class BlockActionListener implements Listener {
             }
 
             if (action == Action.RIGHT_CLICK_BLOCK) {
-                BlockState state = clicked.getState();
-                boolean isContainer = state instanceof InventoryHolder;
-                if (!isContainer && !isInteractiveBlock(clicked)) {
+                Material type = clicked.getType();
+                boolean isContainer = capabilities.needsSnapshot(type)
+                        ? clicked.getState() instanceof InventoryHolder
+                        : capabilities.isContainer(type);
+                if (!isContainer && !capabilities.isInteractive(type)) {
                     return;
                 }
 
-                String eventId = logAction(player, clicked, BlockActionType.INTERACTION);
+                long now = System.currentTimeMillis();
+                long eventId = logAction(player, clicked, BlockActionType.INTERACTION, now);
 
-                if (isContainer && eventId != null) {
+                if (isContainer && eventId != Database.NO_EVENT) {
                     UUID playerId = player.getUniqueId();
                     PendingContainerSession pending = new PendingContainerSession(
                             eventId,
+                            now,
                             clicked.getWorld().getName(),
                             clicked.getX(),
                             clicked.getY(),
@@ -166,7 +209,7 @@ public class BlockActionListener implements Listener {
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         UUID playerId = event.getPlayer().getUniqueId();
-        discardContainerSession(playerId);
+        discardContainerSession(event.getPlayer());
         pendingContainers.remove(playerId);
         pendingInspections.remove(playerId);
         lastInspections.remove(playerId);
@@ -184,10 +227,12 @@ public class BlockActionListener implements Listener {
         Inventory inventory = event.getView().getTopInventory();
         UUID playerId = player.getUniqueId();
         ContainerTarget target;
-        String eventId;
+        long eventId;
+        long eventCreatedAt;
         if (pending != null) {
             target = new ContainerTarget(pending.worldName(), pending.x(), pending.y(), pending.z());
             eventId = pending.eventId();
+            eventCreatedAt = pending.eventCreatedAt();
         } else {
             target = containerTarget(inventory);
             if (target == null) {
@@ -198,21 +243,28 @@ public class BlockActionListener implements Listener {
                 return;
             }
             Block block = world.getBlockAt(target.x(), target.y(), target.z());
-            eventId = logAction(player, block, BlockActionType.INTERACTION);
-            if (eventId == null) {
+            eventCreatedAt = System.currentTimeMillis();
+            eventId = logAction(player, block, BlockActionType.INTERACTION, eventCreatedAt);
+            if (eventId == Database.NO_EVENT) {
                 return;
             }
         }
 
+        // Sessions already open on this container can no longer tell whose change is whose.
+        settleSnapshots(session -> session.inventory().equals(inventory));
+        boolean snapshot = snapshotContainers
+                && inventory.getViewers().stream().allMatch(viewer -> viewer.getUniqueId().equals(playerId));
         openContainers.put(
                 playerId,
                 new OpenContainerSession(
                         eventId,
+                        eventCreatedAt,
                         target.worldName(),
                         target.x(),
                         target.y(),
                         target.z(),
-                        inventory
+                        inventory,
+                        snapshot ? countContents(inventory) : null
                 )
         );
     }
@@ -224,22 +276,82 @@ public class BlockActionListener implements Listener {
         }
 
         OpenContainerSession session = openContainers.remove(player.getUniqueId());
-        if (session != null && !session.inventory().equals(event.getView().getTopInventory())) {
+        if (session == null) {
+            return;
+        }
+        if (!session.inventory().equals(event.getView().getTopInventory())) {
             openContainers.put(player.getUniqueId(), session);
+            return;
+        }
+        logSnapshotDiff(player, session);
+    }
+
+    private void discardContainerSession(Player player) {
+        OpenContainerSession session = openContainers.remove(player.getUniqueId());
+        if (session != null) {
+            logSnapshotDiff(player, session);
+        }
+    }
+
+    /** Logs the net change of a snapshot session's container since it was opened. */
+    private void logSnapshotDiff(Player player, OpenContainerSession session) {
+        if (session.snapshot() == null) {
+            return;
         }
+        Map<Material, Integer> deltas = countContents(session.inventory());
+        session.snapshot().forEach((material, count) -> deltas.merge(material, -count, Integer::sum));
+        enqueuePlayerDeltas(player, session, deltas);
+    }
+
+    /**
+     * Ends the snapshot of the open sessions matching {@code container}, before something other than their player
+     * changes it: the change so far is the player's own and is logged now, and the rest of the session click by
+     * click. Automation and other viewers are told apart from the player that way, not subtracted afterwards.
+     */
+    private void settleSnapshots(Predicate<OpenContainerSession> container) {
+        if (!snapshotContainers || openContainers.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<UUID, OpenContainerSession> entry : openContainers.entrySet()) {
+            OpenContainerSession session = entry.getValue();
+            if (session.snapshot() == null || !container.test(session)) {
+                continue;
+            }
+            Player player = plugin.getServer().getPlayer(entry.getKey());
+            if (player != null) {
+                logSnapshotDiff(player, session);
+            }
+            entry.setValue(session.withoutSnapshot());
+        }
+    }
+
+    private static boolean isAt(OpenContainerSession session, Block block) {
+        return session.x() == block.getX() && session.y() == block.getY() && session.z() == block.getZ()
+                && session.worldName().equals(block.getWorld().getName());
     }
 
-    private void discardContainerSession(UUID playerId) {
-        openContainers.remove(playerId);
+    private static Map<Material, Integer> countContents(Inventory inventory) {
+        Map<Material, Integer> counts = new EnumMap<>(Material.class);
+        for (ItemStack item : inventory.getContents()) {
+            addStackDelta(counts, item, 1);
+        }
+        return counts;
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onInventoryClick(InventoryClickEvent event) {
-        if (!(event.getWhoClicked() instanceof Player player)) {
-            return;
+        if (event.getWhoClicked() instanceof Player player) {
+            logClick(player, event);
         }
+        // The click changes the inventories once this returns, so their cached room is out of date.
+        capacities.invalidate(event.getView().getTopInventory());
+        capacities.invalidate(event.getView().getBottomInventory());
+    }
+
+    private void logClick(Player player, InventoryClickEvent event) {
         OpenContainerSession session = openContainers.get(player.getUniqueId());
-        if (session == null || !session.inventory().equals(event.getView().getTopInventory())) {
+        if (session == null || session.snapshot() != null
+                || !session.inventory().equals(event.getView().getTopInventory())) {
             return;
         }
 
@@ -249,11 +361,14 @@ public class BlockActionListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onInventoryDrag(InventoryDragEvent event) {
+        capacities.invalidate(event.getView().getTopInventory());
+        capacities.invalidate(event.getView().getBottomInventory());
         if (!(event.getWhoClicked() instanceof Player player)) {
             return;
         }
         OpenContainerSession session = openContainers.get(player.getUniqueId());
-        if (session == null || !session.inventory().equals(event.getView().getTopInventory())) {
+        if (session == null || session.snapshot() != null
+                || !session.inventory().equals(event.getView().getTopInventory())) {
             return;
         }
 
@@ -274,6 +389,8 @@ public class BlockActionListener implements Listener {
             return;
         }
         int moved = Math.min(event.getItem().getAmount(), availableCapacity(event.getDestination(), event.getItem()));
+        capacities.removed(event.getSource(), event.getItem(), moved);
+        capacities.added(event.getDestination(), event.getItem(), moved);
         enqueueAutomationDelta(event.getSource(), event.getItem(), -moved, "[TRANSFER]");
         enqueueAutomationDelta(event.getDestination(), event.getItem(), moved, "[TRANSFER]");
     }
@@ -282,11 +399,13 @@ public class BlockActionListener implements Listener {
     public void onInventoryPickup(InventoryPickupItemEvent event) {
         ItemStack item = event.getItem().getItemStack();
         int pickedUp = Math.min(item.getAmount(), availableCapacity(event.getInventory(), item));
+        capacities.added(event.getInventory(), item, pickedUp);
         enqueueAutomationDelta(event.getInventory(), item, pickedUp, "[ITEM PICKUP]");
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onFurnaceBurn(FurnaceBurnEvent event) {
+        invalidateCapacity(event.getBlock());
         if (event.willConsumeFuel()) {
             Map<Material, Integer> deltas = new HashMap<>();
             addAmountDelta(deltas, event.getFuel(), -1);
@@ -300,6 +419,7 @@ public class BlockActionListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onFurnaceSmelt(FurnaceSmeltEvent event) {
+        invalidateCapacity(event.getBlock());
         Map<Material, Integer> deltas = new HashMap<>();
         addAmountDelta(deltas, event.getSource(), -1);
         addStackDelta(deltas, event.getResult(), 1);
@@ -308,6 +428,7 @@ public class BlockActionListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBrewingFuel(BrewingStandFuelEvent event) {
+        invalidateCapacity(event.getBlock());
         if (event.isConsuming()) {
             enqueueAutomationDelta(event.getBlock(), event.getFuel(), -1, "[BREWING]");
         }
@@ -315,6 +436,7 @@ public class BlockActionListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBrew(BrewEvent event) {
+        capacities.invalidate(event.getContents());
         Map<Material, Integer> deltas = new HashMap<>();
         addAmountDelta(deltas, event.getContents().getIngredient(), -1);
         for (int slot = 0; slot < Math.min(3, event.getResults().size()); slot++) {
@@ -397,7 +519,8 @@ public class BlockActionListener implements Listener {
             if (delta != 0) {
                 db.enqueueContainerTransaction(
                         session.eventId(),
-                        player.getUniqueId().toString(),
+                        session.eventCreatedAt(),
+                        player.getUniqueId(),
                         player.getName(),
                         session.worldName(),
                         session.x(), session.y(), session.z(),
@@ -417,67 +540,36 @@ public class BlockActionListener implements Listener {
         if (target == null) {
             return;
         }
-        var world = plugin.getServer().getWorld(target.worldName());
-        if (world == null) {
-            return;
-        }
-        enqueueAutomationDelta(world.getBlockAt(target.x(), target.y(), target.z()), item, delta, actor);
+        settleSnapshots(session -> session.inventory().equals(inventory));
+        automation.add(target.worldName(), target.x(), target.y(), target.z(), null, actor, item.getType(), delta);
     }
 
     private void enqueueAutomationDelta(Block block, ItemStack item, int delta, String actor) {
-        Map<Material, Integer> deltas = new HashMap<>();
-        addAmountDelta(deltas, item, delta);
-        enqueueAutomationDeltas(block, deltas, actor);
+        if (item == null || item.getType() == Material.AIR || delta == 0) {
+            return;
+        }
+        settleSnapshots(session -> isAt(session, block));
+        automation.add(block.getWorld().getName(), block.getX(), block.getY(), block.getZ(), block, actor,
+                item.getType(), delta);
     }
 
     private void enqueueAutomationDeltas(Block block, Map<Material, Integer> deltas, String actor) {
-        Database db = plugin.getDatabase();
-        if (db == null || !db.isOpen() || deltas.values().stream().allMatch(delta -> delta == 0)) {
+        if (deltas.values().stream().allMatch(delta -> delta == 0)) {
             return;
         }
-        long now = System.currentTimeMillis();
-        String eventId = db.enqueueBlockAction(
-                AUTOMATION_UUID,
-                actor,
-                block.getWorld().getName(),
-                block.getX(), block.getY(), block.getZ(),
-                block.getType().name(),
-                block.getBlockData().getAsString(),
-                null,
-                BlockActionType.INTERACTION,
-                now,
-                BlockActionCause.AUTOMATION
-        );
-        deltas.forEach((material, delta) -> {
-            if (delta != 0) {
-                db.enqueueContainerTransaction(
-                        eventId,
-                        AUTOMATION_UUID,
-                        actor,
-                        block.getWorld().getName(),
-                        block.getX(), block.getY(), block.getZ(),
-                        material.name(),
-                        delta,
-                        now
-                );
-            }
-        });
+        settleSnapshots(session -> isAt(session, block));
+        automation.add(block, actor, deltas);
     }
 
-    private static int availableCapacity(Inventory inventory, ItemStack item) {
-        int capacity = 0;
-        int stackLimit = Math.min(inventory.getMaxStackSize(), item.getMaxStackSize());
-        for (ItemStack existing : inventory.getStorageContents()) {
-            if (existing == null || existing.getType() == Material.AIR) {
-                capacity += stackLimit;
-            } else if (existing.isSimilar(item)) {
-                capacity += Math.max(0, Math.min(stackLimit, existing.getMaxStackSize()) - existing.getAmount());
-            }
-            if (capacity >= item.getAmount()) {
-                return capacity;
-            }
+    private int availableCapacity(Inventory inventory, ItemStack item) {
+        return capacities.capacity(inventory, item, plugin.getServer().getCurrentTick());
+    }
+
+    /** Forgets the cached room of a furnace or brewing stand whose contents the server is about to change. */
+    private void invalidateCapacity(Block block) {
+        if (block.getState(false) instanceof InventoryHolder holder) {
+            capacities.invalidate(holder.getInventory());
         }
-        return capacity;
     }
 
     private static int amount(ItemStack item) {
@@ -513,72 +605,37 @@ public class BlockActionListener implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onEntityExplode(EntityExplodeEvent event) {
-        List<ExplosionBlockData> blocks = new ArrayList<>();
-        for (Block block : event.blockList()) {
-            blocks.add(new ExplosionBlockData(
-                    block.getWorld().getName(),
-                    block.getX(), block.getY(), block.getZ(),
-                    block.getType().name(),
-                    block.getBlockData().getAsString(),
-                    rollbackSkipReason(block)
-            ));
-        }
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-            var db = plugin.getDatabase();
-            if (db == null || !db.isOpen()) {
-                return;
-            }
-            long now = System.currentTimeMillis();
-            for (ExplosionBlockData data : blocks) {
-                db.enqueueBlockAction(
-                        "00000000-0000-0000-0000-000000000000",
-                        "[EXPLOSION]",
-                        data.worldName(),
-                        data.x(), data.y(), data.z(),
-                        data.blockType(),
-                        data.blockData(),
-                        data.rollbackSkipReason(),
-                        BlockActionType.BROKEN,
-                        now,
-                        BlockActionCause.EXPLOSION
-                );
-            }
-        });
+        logExplosion(event.blockList());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockExplode(BlockExplodeEvent event) {
-        List<ExplosionBlockData> blocks = new ArrayList<>();
-        for (Block block : event.blockList()) {
-            blocks.add(new ExplosionBlockData(
+        logExplosion(event.blockList());
+    }
+
+    private void logExplosion(List<Block> destroyed) {
+        var db = plugin.getDatabase();
+        if (db == null || !db.isOpen() || destroyed.isEmpty()) {
+            return;
+        }
+        List<Database.BlockChange> blocks = new ArrayList<>(destroyed.size());
+        for (Block block : destroyed) {
+            blocks.add(new Database.BlockChange(
                     block.getWorld().getName(),
                     block.getX(), block.getY(), block.getZ(),
                     block.getType().name(),
-                    block.getBlockData().getAsString(),
+                    block.getBlockData(),
                     rollbackSkipReason(block)
             ));
         }
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
-            var db = plugin.getDatabase();
-            if (db == null || !db.isOpen()) {
-                return;
-            }
-            long now = System.currentTimeMillis();
-            for (ExplosionBlockData data : blocks) {
-                db.enqueueBlockAction(
-                        "00000000-0000-0000-0000-000000000000",
-                        "[EXPLOSION]",
-                        data.worldName(),
-                        data.x(), data.y(), data.z(),
-                        data.blockType(),
-                        data.blockData(),
-                        data.rollbackSkipReason(),
-                        BlockActionType.BROKEN,
-                        now,
-                        BlockActionCause.EXPLOSION
-                );
-            }
-        });
+        db.enqueueBlockActions(
+                EXPLOSION_UUID,
+                "[EXPLOSION]",
+                blocks,
+                BlockActionType.BROKEN,
+                System.currentTimeMillis(),
+                BlockActionCause.EXPLOSION
+        );
     }
 
     private void inspectBlock(Player player, Block block) {
@@ -589,14 +646,14 @@ public class BlockActionListener implements Listener {
         }
 
         UUID playerId = player.getUniqueId();
-        InspectionTarget target = new InspectionTarget(
+        InspectionState state = new InspectionState(new InspectionTarget(
                 block.getWorld().getName(),
                 block.getX(),
                 block.getY(),
                 block.getZ()
-        );
-        lastInspections.put(playerId, target);
-        queueInspection(player, target, 1);
+        ));
+        lastInspections.put(playerId, state);
+        queueInspection(player, state, 1);
     }
 
     public void showInspectionPage(Player player, int page) {
@@ -604,17 +661,19 @@ public class BlockActionListener implements Listener {
             player.sendMessage(Messages.error("Enable inspect mode before selecting a history page."));
             return;
         }
-        InspectionTarget target = lastInspections.get(player.getUniqueId());
-        if (target == null) {
+        InspectionState state = lastInspections.get(player.getUniqueId());
+        if (state == null) {
             player.sendMessage(Messages.error("Inspect a block before selecting a history page."));
             return;
         }
-        queueInspection(player, target, page);
+        queueInspection(player, state, page);
     }
 
-    private void queueInspection(Player player, InspectionTarget target, int page) {
+    private void queueInspection(Player player, InspectionState state, int page) {
         UUID playerId = player.getUniqueId();
-        pendingInspections.put(playerId, new InspectionRequest(target, page));
+        var after = state.pageEnds.lowerEntry(page);
+        pendingInspections.put(playerId, new InspectionRequest(
+                state, page, after == null ? null : after.getValue(), state.totalEntries));
         if (!inspectionsInFlight.add(playerId)) {
             return;
         }
@@ -634,14 +693,16 @@ public class BlockActionListener implements Listener {
             Database.BlockHistoryPage historyPage = null;
             SQLException queryError = null;
             try {
-                InspectionTarget target = request.target();
+                InspectionTarget target = request.state().target;
                 historyPage = db.getActionsAtBlockPage(
                         target.worldName(),
                         target.x(),
                         target.y(),
                         target.z(),
                         request.page(),
-                        INSPECTION_PAGE_SIZE
+                        INSPECTION_PAGE_SIZE,
+                        request.after(),
+                        request.knownTotal()
                 );
             } catch (SQLException e) {
                 queryError = e;
@@ -650,10 +711,13 @@ public class BlockActionListener implements Listener {
             Database.BlockHistoryPage finalHistoryPage = historyPage;
             SQLException finalQueryError = queryError;
             server.getScheduler().runTask(plugin, () -> {
+                if (finalQueryError == null && lastInspections.get(playerId) == request.state()) {
+                    request.state().remember(finalHistoryPage);
+                }
                 boolean superseded = pendingInspections.containsKey(playerId);
                 if (player.isOnline() && plugin.isInspecting(playerId) && !superseded) {
                     if (finalQueryError == null) {
-                        sendInspectionResult(player, request.target(), finalHistoryPage);
+                        sendInspectionResult(player, request.state().target, finalHistoryPage);
                     } else {
                         plugin.getLogger().warning("Failed to query block history: "
                                 + finalQueryError.getMessage());
@@ -747,24 +811,27 @@ public class BlockActionListener implements Listener {
                 .clickEvent(ClickEvent.runCommand("/bkl page " + page));
     }
 
-    private String logAction(Player player, Block block, BlockActionType action) {
+    private long logAction(Player player, Block block, BlockActionType action) {
+        return logAction(player, block, action, System.currentTimeMillis());
+    }
+
+    private long logAction(Player player, Block block, BlockActionType action, long now) {
         var db = plugin.getDatabase();
         if (db == null || !db.isOpen()) {
-            return null;
+            return Database.NO_EVENT;
         }
 
-        String playerUuid = player.getUniqueId().toString();
+        UUID playerUuid = player.getUniqueId();
         String playerName = player.getName();
         String worldName = block.getWorld().getName();
         int x = block.getX();
         int y = block.getY();
         int z = block.getZ();
         String blockType = block.getType().name();
-        String blockData = block.getBlockData().getAsString();
+        BlockData blockData = block.getBlockData();
         String rollbackSkipReason = action == BlockActionType.INTERACTION
                 ? null
                 : rollbackSkipReason(block);
-        long now = System.currentTimeMillis();
 
         return db.enqueueBlockAction(
                 playerUuid,
@@ -780,56 +847,87 @@ public class BlockActionListener implements Listener {
         );
     }
 
-    private boolean isInteractiveBlock(Block block) {
+    private String rollbackSkipReason(Block block) {
         Material type = block.getType();
-
-        // doors and gates of any type
-        if (Tag.DOORS.isTagged(type) || Tag.TRAPDOORS.isTagged(type) || Tag.FENCE_GATES.isTagged(type)) {
-            return true;
+        if (capabilities.needsSnapshot(type)) {
+            if (block.getState() instanceof TileState) {
+                return "TILE_ENTITY";
+            }
+            if (Tag.BEDS.isTagged(type)
+                    || block.getBlockData() instanceof Bisected && !Tag.TRAPDOORS.isTagged(type)) {
+                return "MULTI_BLOCK";
+            }
+            return null;
         }
 
-        return type == Material.LEVER || Tag.BUTTONS.isTagged(type);
-    }
-
-    private static String rollbackSkipReason(Block block) {
-        if (block.getState() instanceof TileState) {
+        if (capabilities.hasTileEntity(type)) {
             return "TILE_ENTITY";
         }
-
-        Material type = block.getType();
-        if (type.name().endsWith("_BED")) {
-            return "MULTI_BLOCK";
-        }
-        if (block.getBlockData() instanceof Bisected && !Tag.TRAPDOORS.isTagged(type)) {
+        if (capabilities.isMultiBlock(type)) {
             return "MULTI_BLOCK";
         }
         return null;
     }
 
     private record OpenContainerSession(
-            String eventId,
+            long eventId,
+            long eventCreatedAt,
             String worldName,
             int x,
             int y,
             int z,
-            Inventory inventory
-    ) {}
+            Inventory inventory,
+            // Item counts when the session opened, in snapshot mode; null when clicks are logged one by one.
+            Map<Material, Integer> snapshot
+    ) {
+        OpenContainerSession withoutSnapshot() {
+            return new OpenContainerSession(eventId, eventCreatedAt, worldName, x, y, z, inventory, null);
+        }
+    }
 
-    private record PendingContainerSession(String eventId, String worldName, int x, int y, int z) {}
+    private record PendingContainerSession(
+            long eventId,
+            long eventCreatedAt,
+            String worldName,
+            int x,
+            int y,
+            int z
+    ) {}
 
     private record ContainerTarget(String worldName, int x, int y, int z) {}
 
     private record InspectionTarget(String worldName, int x, int y, int z) {}
 
-    private record InspectionRequest(InspectionTarget target, int page) {}
+    /**
+     * The block a player last inspected, with its entry count as of the first page and the end of each page read
+     * since, so later pages seek from the nearest earlier one instead of counting and skipping from the top.
+     */
+    private static final class InspectionState {
+        private static final int MAX_PAGE_ENDS = 64;
 
-    private record ExplosionBlockData(
-            String worldName,
-            int x,
-            int y,
-            int z,
-            String blockType,
-            String blockData,
-            String rollbackSkipReason
+        final InspectionTarget target;
+        final NavigableMap<Integer, Database.HistoryCursor> pageEnds = new TreeMap<>();
+        int totalEntries = -1;
+
+        InspectionState(InspectionTarget target) {
+            this.target = target;
+        }
+
+        void remember(Database.BlockHistoryPage page) {
+            totalEntries = page.totalEntries();
+            if (page.end() != null) {
+                pageEnds.put(page.page(), page.end());
+                if (pageEnds.size() > MAX_PAGE_ENDS) {
+                    pageEnds.pollFirstEntry();
+                }
+            }
+        }
+    }
+
+    private record InspectionRequest(
+            InspectionState state,
+            int page,
+            Database.HistoryCursor after,
+            int knownTotal
     ) {}
 }
@@ -0,0 +1,240 @@
+package org.markski.blocklog;
+
+import org.bukkit.block.data.BlockData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The blocks of one bulk action in one world, such as an explosion, queued as a single record and stored as a
+ * single {@code event_groups} row. Block {@code i} keeps the event id {@code id + i}. Positions are packed
+ * relative to the group's bounding box together with the dictionary ids of the block type and state, and
+ * compressed, so the actor, world, time and cause are stored once instead of once per block.
+ */
+final class BlockGroup {
+    /** Widest group on the x and z axes. Lookups by position only scan groups starting this close. */
+    static final int MAX_SPAN = 64;
+
+    private final String world;
+    private final int[] x;
+    private final int[] y;
+    private final int[] z;
+    private final String[] type;
+    // Serialized block data, or null where the captured state is kept instead until it is stored.
+    private final String[] blockData;
+    private final BlockData[] blockState;
+    private final String[] rollbackSkipReason;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+
+    private BlockGroup(String world, int[] x, int[] y, int[] z, String[] type, String[] blockData,
+                       BlockData[] blockState, String[] rollbackSkipReason) {
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.type = type;
+        this.blockData = blockData;
+        this.blockState = blockState;
+        this.rollbackSkipReason = rollbackSkipReason;
+        int lowX = Integer.MAX_VALUE, lowY = Integer.MAX_VALUE, lowZ = Integer.MAX_VALUE;
+        int highX = Integer.MIN_VALUE, highY = Integer.MIN_VALUE, highZ = Integer.MIN_VALUE;
+        for (int i = 0; i < x.length; i++) {
+            lowX = Math.min(lowX, x[i]);
+            lowY = Math.min(lowY, y[i]);
+            lowZ = Math.min(lowZ, z[i]);
+            highX = Math.max(highX, x[i]);
+            highY = Math.max(highY, y[i]);
+            highZ = Math.max(highZ, z[i]);
+        }
+        this.minX = lowX;
+        this.minY = lowY;
+        this.minZ = lowZ;
+        this.maxX = highX;
+        this.maxY = highY;
+        this.maxZ = highZ;
+    }
+
+    /** Groups the blocks of a bulk enqueue. All of them must be in the world of the first one. */
+    static BlockGroup of(List<Database.BlockChange> blocks) {
+        int count = blocks.size();
+        int[] x = new int[count];
+        int[] y = new int[count];
+        int[] z = new int[count];
+        String[] type = new String[count];
+        BlockData[] state = new BlockData[count];
+        String[] skip = new String[count];
+        for (int i = 0; i < count; i++) {
+            Database.BlockChange block = blocks.get(i);
+            x[i] = block.x();
+            y[i] = block.y();
+            z[i] = block.z();
+            type[i] = block.blockType();
+            state[i] = block.blockData();
+            skip[i] = block.rollbackSkipReason();
+        }
+        return new BlockGroup(blocks.get(0).worldName(), x, y, z, type, new String[count], state, skip);
+    }
+
+    /** True when the group is small enough to be stored as one row. */
+    boolean fitsOneRow() {
+        return maxX - minX <= MAX_SPAN && maxZ - minZ <= MAX_SPAN;
+    }
+
+    String world() {
+        return world;
+    }
+
+    int size() {
+        return x.length;
+    }
+
+    int x(int i) {
+        return x[i];
+    }
+
+    int y(int i) {
+        return y[i];
+    }
+
+    int z(int i) {
+        return z[i];
+    }
+
+    String type(int i) {
+        return type[i];
+    }
+
+    /** The captured state of a block, or null when only its serialized form is known. */
+    BlockData blockState(int i) {
+        return blockState[i];
+    }
+
+    /** Serialized block data. A captured state is serialized by the calling thread. */
+    String blockData(int i) {
+        return blockState[i] != null ? blockState[i].getAsString() : blockData[i];
+    }
+
+    String rollbackSkipReason(int i) {
+        return rollbackSkipReason[i];
+    }
+
+    int minX() {
+        return minX;
+    }
+
+    int minY() {
+        return minY;
+    }
+
+    int minZ() {
+        return minZ;
+    }
+
+    int maxX() {
+        return maxX;
+    }
+
+    int maxY() {
+        return maxY;
+    }
+
+    int maxZ() {
+        return maxZ;
+    }
+
+    /** Rough heap cost while queued, on the same terms as {@link IngestRing#estimateBytes(String)}. */
+    long estimateBytes() {
+        long bytes = IngestRing.estimateBytes(world) + 64L + 28L * x.length;
+        for (int i = 0; i < x.length; i++) {
+            bytes += IngestRing.estimateBytes(type[i]) + IngestRing.estimateBytes(blockData[i])
+                    + IngestRing.estimateBytes(rollbackSkipReason[i]);
+        }
+        return bytes;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        RecordCodec.writeString(out, world);
+        out.writeInt(x.length);
+        for (int i = 0; i < x.length; i++) {
+            out.writeInt(x[i]);
+            out.writeInt(y[i]);
+            out.writeInt(z[i]);
+            RecordCodec.writeString(out, type[i]);
+            RecordCodec.writeString(out, blockData(i));
+            RecordCodec.writeString(out, rollbackSkipReason[i]);
+        }
+    }
+
+    static BlockGroup read(DataInputStream in) throws IOException {
+        String world = RecordCodec.readString(in);
+        int count = in.readInt();
+        int[] x = new int[count];
+        int[] y = new int[count];
+        int[] z = new int[count];
+        String[] type = new String[count];
+        String[] data = new String[count];
+        String[] skip = new String[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = in.readInt();
+            y[i] = in.readInt();
+            z[i] = in.readInt();
+            type[i] = RecordCodec.readString(in);
+            data[i] = RecordCodec.readString(in);
+            skip[i] = RecordCodec.readString(in);
+        }
+        return new BlockGroup(world, x, y, z, type, data, new BlockData[count], skip);
+    }
+
+    /**
+     * The stored form of the blocks: offsets from the bounding box minimum, the ids {@code typeIds} and
+     * {@code dataIds} that the database assigned to each block's type and state, and the skip reasons,
+     * deflated.
+     */
+    byte[] pack(int[] typeIds, int[] dataIds, Deflater deflater) {
+        deflater.reset();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + x.length * 4);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 512))) {
+            for (int i = 0; i < x.length; i++) {
+                out.writeByte(x[i] - minX);
+                out.writeShort(y[i] - minY);
+                out.writeByte(z[i] - minZ);
+                out.writeInt(typeIds[i]);
+                out.writeInt(dataIds[i]);
+                RecordCodec.writeString(out, rollbackSkipReason[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** One block read back from a stored group. {@code index} is its position in the group. */
+    record StoredBlock(int index, int x, int y, int z, int typeId, int dataId, String rollbackSkipReason) {}
+
+    static List<StoredBlock> unpack(byte[] packed, int count, int minX, int minY, int minZ) throws IOException {
+        List<StoredBlock> blocks = new ArrayList<>(count);
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(packed)))) {
+            for (int i = 0; i < count; i++) {
+                int x = minX + in.readUnsignedByte();
+                int y = minY + in.readUnsignedShort();
+                int z = minZ + in.readUnsignedByte();
+                blocks.add(new StoredBlock(i, x, y, z, in.readInt(), in.readInt(), RecordCodec.readString(in)));
+            }
+        }
+        return blocks;
+    }
+}
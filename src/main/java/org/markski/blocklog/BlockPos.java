@@ -0,0 +1,32 @@
+package org.markski.blocklog;
+
+/**
+ * Block positions packed into one 64-bit key the way the server packs them: 26 bits of x, 26 bits of z and 12 bits
+ * of y, each two's complement. Events are clustered by world and this key, so all of one block's history is
+ * stored together.
+ */
+final class BlockPos {
+    // SQL expressions that unpack a key stored in column {@code pos}. SQLite's right shift keeps the sign.
+    static final String SQL_X = "(pos >> 38)";
+    static final String SQL_Y = "((pos << 52) >> 52)";
+    static final String SQL_Z = "((pos << 26) >> 38)";
+
+    private BlockPos() {
+    }
+
+    static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    static int x(long pos) {
+        return (int) (pos >> 38);
+    }
+
+    static int y(long pos) {
+        return (int) (pos << 52 >> 52);
+    }
+
+    static int z(long pos) {
+        return (int) (pos << 26 >> 38);
+    }
+}
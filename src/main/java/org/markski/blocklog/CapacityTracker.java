@@ -0,0 +1,175 @@
+package org.markski.blocklog;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * How many more items of a kind fit in an inventory, remembered per container position and material so a hopper
+ * feeding the same chest does not copy and scan its contents on every transfer. Entries are keyed by where the
+ * container is rather than by the inventory object, which holds its block entity and would keep containers in
+ * unloaded chunks reachable. Moves the listeners see adjust the cached numbers; clicks, drags, smelting, brewing
+ * and placing a container forget them, and anything else is covered by expiring entries after
+ * {@link #MAX_AGE_TICKS}. Only items without meta are cached, since those are similar exactly when their
+ * materials match. Server thread only.
+ */
+final class CapacityTracker {
+    // Bounds how long a change the listeners cannot see, such as another plugin editing a chest, can go unnoticed.
+    private static final int MAX_AGE_TICKS = 100;
+    private static final int MAX_INVENTORIES = 4096;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /** Free room for {@code item} in {@code inventory}, as of {@code tick}. */
+    int capacity(Inventory inventory, ItemStack item, int tick) {
+        Key key = item.hasItemMeta() ? null : key(inventory);
+        if (key == null) {
+            return scan(inventory, item, item.getAmount());
+        }
+        Entry entry = entries.get(key);
+        int size = inventory.getSize();
+        if (entry == null || tick - entry.since > MAX_AGE_TICKS || tick < entry.since || entry.size != size) {
+            if (entry == null && entries.size() >= MAX_INVENTORIES) {
+                entries.clear();
+            }
+            entry = new Entry(tick, size);
+            entries.put(key, entry);
+        }
+        int cached = entry.free(item.getType());
+        if (cached >= 0) {
+            return cached;
+        }
+        int free = scan(inventory, item, Integer.MAX_VALUE);
+        entry.put(item.getType(), free);
+        return free;
+    }
+
+    /** Records {@code amount} of {@code item} entering {@code inventory}. */
+    void added(Inventory inventory, ItemStack item, int amount) {
+        adjust(inventory, item, -amount);
+    }
+
+    /** Records {@code amount} of {@code item} leaving {@code inventory}. */
+    void removed(Inventory inventory, ItemStack item, int amount) {
+        adjust(inventory, item, amount);
+    }
+
+    /** Forgets everything about {@code inventory}, for a change that cannot be followed. */
+    void invalidate(Inventory inventory) {
+        Key key = inventory == null ? null : key(inventory);
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    /** Forgets the container at {@code block}, for one placed where another may have been. */
+    void invalidate(Block block) {
+        if (!entries.isEmpty()) {
+            UUID world = block.getWorld().getUID();
+            entries.keySet().removeIf(key -> key.x() == block.getX() && key.y() == block.getY()
+                    && key.z() == block.getZ() && key.world().equals(world));
+        }
+    }
+
+    private void adjust(Inventory inventory, ItemStack item, int change) {
+        if (change == 0 || entries.isEmpty()) {
+            return;
+        }
+        Key key = key(inventory);
+        Entry entry = key == null ? null : entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        int cached = item.hasItemMeta() ? -1 : entry.free(item.getType());
+        // Filling or emptying a slot changes the room for every other material too.
+        entry.count = 0;
+        if (cached >= 0) {
+            entry.put(item.getType(), Math.max(0, cached + change));
+        }
+    }
+
+    /**
+     * Free room for {@code item} counted slot by slot, stopping once it reaches {@code enough}. This is what the
+     * listeners did on every event before the cache.
+     */
+    static int scan(Inventory inventory, ItemStack item, int enough) {
+        int capacity = 0;
+        int stackLimit = Math.min(inventory.getMaxStackSize(), item.getMaxStackSize());
+        for (ItemStack existing : inventory.getStorageContents()) {
+            if (existing == null || existing.getType() == Material.AIR) {
+                capacity += stackLimit;
+            } else if (existing.isSimilar(item)) {
+                capacity += Math.max(0, Math.min(stackLimit, existing.getMaxStackSize()) - existing.getAmount());
+            }
+            if (capacity >= enough) {
+                return capacity;
+            }
+        }
+        return capacity;
+    }
+
+    /** Where {@code inventory} is, or null for one without a fixed place, such as a player's own. */
+    private static Key key(Inventory inventory) {
+        if (inventory instanceof PlayerInventory) {
+            return null;
+        }
+        Location location = inventory.getLocation();
+        World world = location == null ? null : location.getWorld();
+        if (world == null) {
+            return null;
+        }
+        return new Key(world.getUID(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    private record Key(UUID world, int x, int y, int z) {}
+
+    private static final class Entry {
+        final int since;
+        // Slot count when cached, so a single chest that became a double one is not taken for the same.
+        final int size;
+        // Free room per material asked about, rarely more than a few. An EnumMap would allocate and clear a slot
+        // for every material the server knows, which costs more than the scan it saves.
+        Material[] materials = new Material[4];
+        int[] free = new int[4];
+        int count;
+
+        Entry(int since, int size) {
+            this.since = since;
+            this.size = size;
+        }
+
+        /** Cached room for {@code material}, or -1. */
+        int free(Material material) {
+            for (int i = 0; i < count; i++) {
+                if (materials[i] == material) {
+                    return free[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(Material material, int room) {
+            for (int i = 0; i < count; i++) {
+                if (materials[i] == material) {
+                    free[i] = room;
+                    return;
+                }
+            }
+            if (count == materials.length) {
+                materials = Arrays.copyOf(materials, count * 2);
+                free = Arrays.copyOf(free, count * 2);
+            }
+            materials[count] = material;
+            free[count++] = room;
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package org.markski.blocklog;
 
+import org.bukkit.block.data.BlockData;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.Plugin;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -11,24 +20,46 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.Deflater;
 
 public class Database {
+    /** Returned instead of an event id when the event could not be queued. */
+    public static final long NO_EVENT = 0L;
+
     private final Plugin plugin;
+    // Folder holding this store's database file, spill file and journal.
+    private final File dataFolder;
+    // The world this store holds when it is a per-world shard, or null for the main database.
+    private final String shardWorld;
+    private final boolean shardPerWorld;
+    private final Map<String, Database> shards = new ConcurrentHashMap<>();
+    // Completes once a shard has finished opening.
+    private volatile CompletableFuture<Void> opened;
 
     private Connection writeConnection;
     private String jdbcUrl;
@@ -36,71 +67,268 @@ public class Database {
     private volatile boolean open;
     private volatile boolean closing;
 
-    private final Queue<PendingBlockAction> pendingActions = new ConcurrentLinkedQueue<>();
-    private final Queue<PendingContainerTransaction> pendingContainerTransactions = new ConcurrentLinkedQueue<>();
-    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final IngestRing ingest = new IngestRing(MAX_QUEUE_SIZE);
     private final AtomicLong lastQueueWarningNanos = new AtomicLong();
-
-    private static final long FLUSH_INTERVAL_SECONDS = 25L;
-    private static final int MAX_QUEUE_SIZE = 50000;
-    private static final int MAX_FLUSH_BATCH_SIZE = 5000;
+    // Shared with the shards, so ids stay unique across all of them.
+    private final EventIdGenerator eventIds;
+    private final AtomicBoolean earlyFlushRequested = new AtomicBoolean();
+    // Records queued by the server thread, handed to the ring once per tick. Null when staging is off.
+    private final TickBuffer staged;
+    // Staged events that were dropped on hand-off, so transactions referring to them are dropped as well rather
+    // than failing their flush on the foreign key. Server thread only.
+    private final Set<Long> droppedStagedEvents = new LinkedHashSet<>();
+    private final AtomicBoolean flushLoopIdle = new AtomicBoolean();
+
+    private static final long DEFAULT_FLUSH_INTERVAL_SECONDS = 25L;
+    private static final long DEFAULT_IDLE_FLUSH_INTERVAL_SECONDS = 120L;
+    private static final double DEFAULT_EARLY_FLUSH_WATERMARK = 0.5;
+    private static final long DEFAULT_TARGET_COMMIT_MILLIS = 250L;
+    private static final int DEFAULT_MIN_FLUSH_BATCH_SIZE = 1000;
+    private static final int DEFAULT_MAX_FLUSH_BATCH_SIZE = 20000;
+    private static final int MAX_QUEUE_SIZE = 1 << 16;
+    private static final long DEFAULT_QUEUE_MEMORY_BUDGET_MB = 64L;
+    private static final long DEFAULT_MAX_SPILL_MB = 1024L;
+    private static final long DEFAULT_JOURNAL_SYNC_MILLIS = 50L;
+    private static final long DEFAULT_JOURNAL_SEGMENT_MB = 8L;
+    private static final long REQUESTED_FLUSH_JOURNAL_WAIT_MILLIS = 1000L;
+    private static final int STAGED_INITIAL_CAPACITY = 1024;
+    private static final int MAX_DROPPED_STAGED_EVENTS = 4096;
     private static final int WAL_CHECKPOINT_INTERVAL = 10;
     private static final int MAX_READ_POOL_SIZE = 3;
     private static final long QUEUE_WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int SCHEMA_VERSION = 11;
+    private static final int DEFAULT_PARTITION_DAYS = 7;
+    private static final long DEFAULT_RETENTION_DAYS = 0L;
+    private static final int MAX_WRITER_PARTITIONS = 4;
+    private static final long RETENTION_CHECK_INTERVAL_MINUTES = 60L;
+    private static final long DEFAULT_PURGE_BUDGET_MILLIS = 50L;
+    private static final int DEFAULT_MERGE_ROWS = 20000;
+    private static final long PURGE_PAUSE_MILLIS = 250L;
+    private static final int MIN_PURGE_CHUNK = 100;
+    private static final int MAX_PURGE_CHUNK = 10000;
+    private static final int PURGE_VACUUM_PAGES = 256;
+    private static final long PURGE_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final String SHARD_WORLD_FILE = "world.txt";
 
     private int flushCount = 0;
+    private int rowsSinceScheduledFlush = 0;
+
+    private final FlushScheduler flushScheduler;
+    private final long queueMemoryBudget;
+    private final SpillFile spill;
+    private final Durability durability;
+    private final IngestJournal journal;
+    private volatile FlushMetrics flushMetrics = FlushMetrics.NONE;
+    private final Partitions partitions;
+    private final long retentionMillis;
+    private final long purgeBudgetNanos;
+    private final int mergeRows;
+
+    // Progress of the current retention purge. Writer thread only.
+    private ScheduledFuture<?> purgeFuture;
+    private long purgeCutoff;
+    private int purgeChunkSize = MIN_PURGE_CHUNK;
+    private long purgedRows;
+    private long purgeStartedNanos;
+    private long lastPurgeReportNanos;
+
+    // The next step of merging staged events. Writer thread only.
+    private ScheduledFuture<?> mergeFuture;
 
     private final Deque<Connection> readPool = new ArrayDeque<>();
     private final Semaphore readPermits = new Semaphore(MAX_READ_POOL_SIZE);
+    // Entries of inspected blocks per partition, so paging through a block counts each partition once instead of
+    // attaching all of them on every request. A count holds until its partition's entries change.
+    private final Map<BlockCountKey, BlockCount> blockCounts = new ConcurrentHashMap<>();
+    // Commits that changed each partition's entries, by schema. Bumped by the writer after they commit.
+    private final Map<String, Long> partitionWrites = new ConcurrentHashMap<>();
+
+    // Dictionary tables for strings that repeat on nearly every row. Writer thread only.
+    private final InternTable worlds = new InternTable("worlds");
+    private final InternTable materials = new InternTable("materials");
+    private final InternTable blockStates = new InternTable("block_states");
+    // Names of the players in the history; rows store only their UUIDs.
+    private final PlayerRegistry players = new PlayerRegistry();
+    // Serialized form of captured block states. Each capture is a fresh wrapper, but wrappers compare and hash by
+    // the server's shared state, so the handful of states in play are each serialized once. Writer thread only.
+    private final Map<BlockData, String> blockDataStrings = new HashMap<>();
+    private final Deflater groupDeflater = new Deflater(Deflater.BEST_SPEED);
+
+    // Partitions attached to the write connection, least recently used first. Writer thread only.
+    private final Map<Partitions.Partition, WriterPartition> writerPartitions =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final int MAX_BLOCK_DATA_STRINGS = 8192;
+    private static final int MAX_BLOCK_COUNTS = 4096;
+    // Deltas kept in an event's summary, newest first, as the inspection shows them.
+    private static final int SUMMARY_ITEMS = 20;
+
+    /**
+     * A partition attached to the write connection, with its insert statements and the ring offsets of the rows
+     * it receives in the current flush.
+     */
+    private static final class WriterPartition {
+        final Partitions.Partition partition;
+        final PreparedStatement[] eventInserts = new PreparedStatement[PartitionSchema.INSERT_ROWS.length];
+        final PreparedStatement[] txInserts = new PreparedStatement[PartitionSchema.INSERT_ROWS.length];
+        int[] eventRows = new int[64];
+        int[] txRows = new int[16];
+        int[] groupRows = new int[16];
+        PreparedStatement groupInsert;
+        PreparedStatement summarySelect;
+        PreparedStatement summaryRebuild;
+        PreparedStatement summaryUpsert;
+        int events;
+        int transactions;
+        int groups;
+        long lastFlush;
+        // Rows in events_recent, counting those of a flush that failed, which a merge will correct.
+        int recentRows;
+
+        WriterPartition(Partitions.Partition partition) {
+            this.partition = partition;
+        }
 
-    private static final String EVENTS_INSERT_SQL = """
-            INSERT INTO events (
-                id,
-                player_uuid,
-                player_name,
-                world,
-                x,
-                y,
-                z,
-                block_type,
-                block_data,
-                rollback_skip_reason,
-                action,
-                created_at,
-                cause
-            ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
-            """;
-
-    private static final String TX_INSERT_SQL = """
-            INSERT INTO container_transactions (
-                id,
-                event_id,
-                player_uuid,
-                player_name,
-                world,
-                x,
-                y,
-                z,
-                item_type,
-                delta,
-                created_at
-            ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
-            """;
-
-    private PreparedStatement eventsInsertPs;
-    private PreparedStatement txInsertPs;
-
-    private final ScheduledExecutorService dbExecutor =
-            Executors.newSingleThreadScheduledExecutor(r -> {
-                Thread t = new Thread(r, "BlockLog-DB");
-                t.setDaemon(true);
-                return t;
-            });
+        void addEvent(int offset) {
+            if (events == eventRows.length) {
+                eventRows = Arrays.copyOf(eventRows, events * 2);
+            }
+            eventRows[events++] = offset;
+        }
+
+        void addGroup(int offset) {
+            if (groups == groupRows.length) {
+                groupRows = Arrays.copyOf(groupRows, groups * 2);
+            }
+            groupRows[groups++] = offset;
+        }
+
+        void addTransaction(int offset) {
+            if (transactions == txRows.length) {
+                txRows = Arrays.copyOf(txRows, transactions * 2);
+            }
+            txRows[transactions++] = offset;
+        }
+
+        void closeStatements() {
+            closeQuietly(groupInsert);
+            closeQuietly(summarySelect);
+            closeQuietly(summaryRebuild);
+            closeQuietly(summaryUpsert);
+            groupInsert = null;
+            summarySelect = null;
+            summaryRebuild = null;
+            summaryUpsert = null;
+            for (int i = 0; i < PartitionSchema.INSERT_ROWS.length; i++) {
+                closeQuietly(eventInserts[i]);
+                closeQuietly(txInserts[i]);
+                eventInserts[i] = null;
+                txInserts[i] = null;
+            }
+        }
+    }
+
+    private final ScheduledExecutorService dbExecutor;
 
     private ScheduledFuture<?> flushFuture;
+    private ScheduledFuture<?> retentionFuture;
 
     public Database(Plugin plugin) {
+        this(plugin, plugin.getDataFolder(), null, new EventIdGenerator());
+    }
+
+    private Database(Plugin plugin, File dataFolder, String shardWorld, EventIdGenerator eventIds) {
         this.plugin = plugin;
+        this.dataFolder = dataFolder;
+        this.shardWorld = shardWorld;
+        this.eventIds = eventIds;
+        String threadName = shardWorld == null ? "BlockLog-DB" : "BlockLog-DB-" + shardWorld;
+        this.dbExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+        FileConfiguration config = plugin.getConfig();
+        // Shards never shard again; the main database only keeps rollback audits when sharding is on.
+        this.shardPerWorld = shardWorld == null && config.getBoolean("storage.shard-per-world", false);
+        this.flushScheduler = createFlushScheduler(config);
+        this.queueMemoryBudget = Math.max(1L,
+                config.getLong("queue.memory-budget-mb", DEFAULT_QUEUE_MEMORY_BUDGET_MB)) * 1024L * 1024L;
+        this.spill = new SpillFile(
+                new File(dataFolder, "queue-spill.bin"),
+                Math.max(1L, config.getLong("queue.max-spill-mb", DEFAULT_MAX_SPILL_MB)) * 1024L * 1024L
+        );
+        this.partitions = new Partitions(new File(dataFolder, "partitions"),
+                Math.max(1, config.getInt("storage.partition-days", DEFAULT_PARTITION_DAYS)));
+        this.retentionMillis = TimeUnit.DAYS.toMillis(
+                Math.max(0L, config.getLong("storage.retention-days", DEFAULT_RETENTION_DAYS)));
+        this.purgeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(1L, config.getLong("storage.purge-budget-millis", DEFAULT_PURGE_BUDGET_MILLIS)));
+        this.mergeRows = Math.max(1, config.getInt("storage.merge-rows", DEFAULT_MERGE_ROWS));
+        this.durability = parseDurability(plugin, config.getString("durability.mode", "memory"));
+        this.journal = durability == Durability.MEMORY || shardPerWorld ? null : new IngestJournal(
+                new File(dataFolder, "journal"),
+                ingest,
+                spill,
+                Math.max(1L, config.getLong("durability.journal-sync-millis", DEFAULT_JOURNAL_SYNC_MILLIS)),
+                Math.max(1L, config.getLong("durability.journal-segment-mb", DEFAULT_JOURNAL_SEGMENT_MB))
+                        * 1024L * 1024L,
+                plugin.getLogger()
+        );
+        if (config.getBoolean("flush.log-decisions", false)) {
+            this.flushMetrics = FlushMetrics.logging(plugin.getLogger());
+        }
+        // With sharding the main database only routes records, so only the shards stage them.
+        this.staged = shardPerWorld || !config.getBoolean("queue.stage-per-tick", false)
+                ? null
+                : new TickBuffer(STAGED_INITIAL_CAPACITY);
+    }
+
+    /**
+     * How much of the queue survives a crash. MEMORY loses whatever was queued since the last flush; JOURNALED
+     * also writes records to an fsynced journal before they reach SQLite; FULL additionally commits SQLite with
+     * synchronous=FULL, so every flush is durable on its own and the journal is trimmed right after it.
+     */
+    private enum Durability {
+        MEMORY,
+        JOURNALED,
+        FULL
+    }
+
+    private static Durability parseDurability(Plugin plugin, String configured) {
+        try {
+            return Durability.valueOf(configured.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Invalid durability.mode '" + configured + "'; using memory.");
+            return Durability.MEMORY;
+        }
+    }
+
+    private static FlushScheduler createFlushScheduler(FileConfiguration config) {
+        long interval = Math.max(1L, config.getLong("flush.interval-seconds", DEFAULT_FLUSH_INTERVAL_SECONDS));
+        long idleInterval = config.getLong("flush.idle-interval-seconds", DEFAULT_IDLE_FLUSH_INTERVAL_SECONDS);
+        double watermark = config.getDouble("flush.early-flush-watermark", DEFAULT_EARLY_FLUSH_WATERMARK);
+        watermark = Math.max(0.05, Math.min(0.95, watermark));
+        long targetCommitMillis = Math.max(1L,
+                config.getLong("flush.target-commit-millis", DEFAULT_TARGET_COMMIT_MILLIS));
+        int minBatch = Math.max(100, config.getInt("flush.min-batch-size", DEFAULT_MIN_FLUSH_BATCH_SIZE));
+        int maxBatch = Math.min(MAX_QUEUE_SIZE, config.getInt("flush.max-batch-size", DEFAULT_MAX_FLUSH_BATCH_SIZE));
+        return new FlushScheduler(
+                TimeUnit.SECONDS.toMillis(interval),
+                TimeUnit.SECONDS.toMillis(idleInterval),
+                (int) (MAX_QUEUE_SIZE * watermark),
+                targetCommitMillis,
+                minBatch,
+                maxBatch
+        );
+    }
+
+    /** Replaces the hook that receives flush scheduling decisions. */
+    public void setFlushMetrics(FlushMetrics metrics) {
+        this.flushMetrics = metrics == null ? FlushMetrics.NONE : metrics;
+        for (Database shard : shards.values()) {
+            shard.setFlushMetrics(metrics);
+        }
     }
 
     public CompletableFuture<Void> openAsync() {
@@ -118,15 +346,26 @@ public class Database {
             throw new SQLException("Database is closing.");
         }
 
-        if (!plugin.getDataFolder().exists()) {
-            boolean created = plugin.getDataFolder().mkdirs();
+        if (!dataFolder.exists()) {
+            boolean created = dataFolder.mkdirs();
             if (!created) {
                 throw new SQLException("Could not create plugin data folder: " +
-                        plugin.getDataFolder().getAbsolutePath());
+                        dataFolder.getAbsolutePath());
+            }
+        }
+
+        if (shardWorld != null) {
+            File worldFile = new File(dataFolder, SHARD_WORLD_FILE);
+            try {
+                if (!worldFile.exists()) {
+                    Files.writeString(worldFile.toPath(), shardWorld, StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                throw new SQLException("Could not write " + worldFile.getAbsolutePath() + ": " + e.getMessage(), e);
             }
         }
 
-        File dbFile = new File(plugin.getDataFolder(), "blocklog.sqlite");
+        File dbFile = new File(dataFolder, "blocklog.sqlite");
         boolean existedBefore = dbFile.exists();
 
         jdbcUrl = "jdbc:sqlite:" + dbFile.getAbsolutePath();
@@ -136,21 +375,62 @@ public class Database {
         writeConnection = DriverManager.getConnection(jdbcUrl);
         applyPragmas(writeConnection);
 
+        String dbName = shardWorld == null ? dbFile.getName() : dbFile.getName() + " for world " + shardWorld;
         if (!existedBefore) {
-            plugin.getLogger().info("Created db: " + dbFile.getName());
+            plugin.getLogger().info("Created db: " + dbName);
         } else {
-            plugin.getLogger().info("Using db: " + dbFile.getName());
+            plugin.getLogger().info("Using db: " + dbName);
         }
 
+        validateSchema("main");
         createTables();
-        validateSchema();
+        players.load(writeConnection);
+        partitions.load();
+        replayJournal();
+        startJournal();
+        recoverSpilledRecords();
+        seedEventIds();
         failInterruptedRollbackAudits();
         open = true;
         startDbFlushLoop();
+        if (shardPerWorld) {
+            recoverShards();
+        }
+    }
+
+    /**
+     * Opens the shards a crash left with records still spilled or journaled, so those are written without
+     * waiting for their world to log something again.
+     */
+    private void recoverShards() {
+        File[] folders = new File(dataFolder, "shards").listFiles(File::isDirectory);
+        if (folders == null) {
+            return;
+        }
+        for (File folder : folders) {
+            File[] segments = new File(folder, "journal").listFiles();
+            boolean pending = new File(folder, "queue-spill.bin").length() > 0
+                    || (segments != null && segments.length > 0);
+            if (!pending) {
+                continue;
+            }
+            try {
+                shardFor(Files.readString(new File(folder, SHARD_WORLD_FILE).toPath(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read the world of shard folder " + folder.getName() + ": "
+                        + e.getMessage());
+            }
+        }
     }
 
     public void close() {
+        if (plugin.getServer().isPrimaryThread()) {
+            publishStaged();
+        }
         closing = true;
+        for (Database shard : shards.values()) {
+            shard.close();
+        }
         try {
             dbExecutor.submit(this::closeOnDatabaseThread).get(10, TimeUnit.SECONDS);
         } catch (Exception e) {
@@ -171,22 +451,36 @@ public class Database {
 
     private void closeOnDatabaseThread() {
         stopDbFlushLoop();
+        if (journal != null) {
+            // The journal copies everything already queued before it stops, so the final flush need not wait.
+            journal.stop();
+        }
 
         try {
-            while (pendingCount.get() > 0) {
-                flushPendingActions();
+            while ((!ingest.isEmpty() || spill.isActive())
+                    && flushPendingActions(FlushMetrics.Trigger.SHUTDOWN) > 0) {
+                // Keep going until everything queued before shutdown is written.
+            }
+            if (journal != null && writeConnection != null && ingest.isEmpty() && checkpoint()) {
+                journal.discard();
             }
         } catch (SQLException e) {
             plugin.getLogger().severe("Failed final flush during shutdown: " + e.getMessage());
         }
+        // Anything still spilled or journaled stays on disk and is written on the next start.
+        spill.close();
 
         open = false;
 
         if (writeConnection != null) {
-            closeQuietly(eventsInsertPs);
-            closeQuietly(txInsertPs);
-            eventsInsertPs = null;
-            txInsertPs = null;
+            for (WriterPartition partition : writerPartitions.values()) {
+                partition.closeStatements();
+            }
+            writerPartitions.clear();
+            worlds.close();
+            materials.close();
+            blockStates.close();
+            players.close();
 
             try {
                 writeConnection.close();
@@ -217,9 +511,21 @@ public class Database {
         if (!isOpen()) {
             return;
         }
+        if (shardPerWorld) {
+            for (Database shard : shards.values()) {
+                try {
+                    awaitOpened(shard);
+                } catch (SQLException e) {
+                    continue;
+                }
+                shard.flushPendingActionsNow();
+            }
+            return;
+        }
 
         try {
-            dbExecutor.submit(this::flushPendingActionsSafe).get(10, TimeUnit.SECONDS);
+            dbExecutor.submit(() -> flushPendingActionsSafe(FlushMetrics.Trigger.REQUESTED))
+                    .get(10, TimeUnit.SECONDS);
         } catch (Exception e) {
             plugin.getLogger().severe("Error waiting for flush: " + e.getMessage());
         }
@@ -229,8 +535,14 @@ public class Database {
         if (!isOpen()) {
             return;
         }
+        if (shardPerWorld) {
+            for (Database shard : shards.values()) {
+                shard.requestFlush();
+            }
+            return;
+        }
         try {
-            dbExecutor.submit(this::flushPendingActionsSafe);
+            dbExecutor.execute(() -> flushPendingActionsSafe(FlushMetrics.Trigger.REQUESTED));
         } catch (RejectedExecutionException ignored) {
         }
     }
@@ -238,7 +550,7 @@ public class Database {
     private void applyPragmas(Connection c) throws SQLException {
         try (Statement stmt = c.createStatement()) {
             stmt.execute("PRAGMA journal_mode=WAL;");
-            stmt.execute("PRAGMA synchronous=NORMAL;");
+            stmt.execute(durability == Durability.FULL ? "PRAGMA synchronous=FULL;" : "PRAGMA synchronous=NORMAL;");
             stmt.execute("PRAGMA foreign_keys=ON;");
             // Good lord.
             stmt.execute("PRAGMA busy_timeout=5000;");
@@ -246,40 +558,17 @@ public class Database {
     }
 
     private void createTables() throws SQLException {
-        String sql = """
-                    CREATE TABLE IF NOT EXISTS events (
-                        id           TEXT PRIMARY KEY NOT NULL,
-                        player_uuid  TEXT    NOT NULL,
-                        player_name  TEXT    NOT NULL,
-                        world        TEXT    NOT NULL,
-                        x            INTEGER NOT NULL,
-                        y            INTEGER NOT NULL,
-                        z            INTEGER NOT NULL,
-                        block_type   TEXT    NOT NULL,
-                        block_data   TEXT    NOT NULL,
-                        rollback_skip_reason TEXT,
-                        action       INTEGER NOT NULL,  -- BlockActionType code
-                        created_at   INTEGER NOT NULL,
-                        cause        INTEGER            -- BlockActionCause code, nullable
-                    );
-                    """;
-
         try (Statement stmt = writeConnection.createStatement()) {
-            stmt.execute(sql);
-
-            sql = """
-                    CREATE INDEX IF NOT EXISTS idx_events_world_xyz
-                    ON events (world, x, y, z);
-                    """;
-            stmt.execute(sql);
-
-            sql = """
-                    CREATE INDEX IF NOT EXISTS idx_events_player_time
-                    ON events (player_uuid, created_at);
-                    """;
-            stmt.execute(sql);
+            // Takes effect on a new file only; lets the retention purge shrink it.
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL;");
+            stmt.execute(worlds.createTableSql());
+            stmt.execute(materials.createTableSql());
+            stmt.execute(blockStates.createTableSql());
+            for (String playersSql : players.createTableSql()) {
+                stmt.execute(playersSql);
+            }
 
-            sql = """
+            String sql = """
                     CREATE TABLE IF NOT EXISTS rollback_audits (
                         id                  TEXT PRIMARY KEY NOT NULL,
                         executor_uuid       TEXT    NOT NULL,
@@ -310,52 +599,62 @@ public class Database {
                     """;
             stmt.execute(sql);
 
-            sql = """
-                    CREATE INDEX IF NOT EXISTS idx_events_player_name_time
-                    ON events (player_name COLLATE NOCASE, created_at DESC);
-                    """;
-            stmt.execute(sql);
-
-            sql = """
-                    CREATE INDEX IF NOT EXISTS idx_events_created_at
-                    ON events (created_at);
-                    """;
-            stmt.execute(sql);
+            stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION + ";");
+        }
+    }
 
-            sql = """
-                    CREATE TABLE IF NOT EXISTS container_transactions (
-                        id          TEXT PRIMARY KEY NOT NULL,
-                        event_id    TEXT    NOT NULL,
-                        player_uuid TEXT    NOT NULL,
-                        player_name TEXT    NOT NULL,
-                        world       TEXT    NOT NULL,
-                        x           INTEGER NOT NULL,
-                        y           INTEGER NOT NULL,
-                        z           INTEGER NOT NULL,
-                        item_type   TEXT    NOT NULL,
-                        delta       INTEGER NOT NULL,
-                        created_at  INTEGER NOT NULL,
-                        FOREIGN KEY (event_id) REFERENCES events(id)
-                    );
-                    """;
-            stmt.execute(sql);
+    /** Creates the history tables inside a partition attached as {@code schema}. */
+    private void createPartitionTables(String schema) throws SQLException {
+        try (Statement stmt = writeConnection.createStatement()) {
+            for (String sql : PartitionSchema.createTableSql(schema)) {
+                stmt.execute(sql);
+            }
+            stmt.execute("PRAGMA " + schema + ".user_version = " + SCHEMA_VERSION + ";");
+        }
+    }
 
-            sql = """
-                    CREATE INDEX IF NOT EXISTS idx_container_transactions_event
-                    ON container_transactions (event_id);
-                    """;
-            stmt.execute(sql);
+    public long enqueueBlockAction(
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            String blockData,
+            String rollbackSkipReason,
+            BlockActionType action,
+            long createdAt,
+            BlockActionCause cause
+    ) {
+        return enqueueBlockAction(playerUuid, playerName, worldName, x, y, z, blockType, blockData, null,
+                rollbackSkipReason, action, createdAt, cause);
+    }
 
-            sql = """
-                    CREATE INDEX IF NOT EXISTS idx_container_transactions_world_xyz_time
-                    ON container_transactions (world, x, y, z, created_at);
-                    """;
-            stmt.execute(sql);
-        }
+    /**
+     * Queues an event with its block data as captured. BlockData is immutable, so it is only serialized later,
+     * by the database thread, instead of on the server thread.
+     */
+    public long enqueueBlockAction(
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            BlockData blockData,
+            String rollbackSkipReason,
+            BlockActionType action,
+            long createdAt,
+            BlockActionCause cause
+    ) {
+        return enqueueBlockAction(playerUuid, playerName, worldName, x, y, z, blockType, null, blockData,
+                rollbackSkipReason, action, createdAt, cause);
     }
 
-    public String enqueueBlockAction(
-            String playerUuid,
+    private long enqueueBlockAction(
+            UUID playerUuid,
             String playerName,
             String worldName,
             int x,
@@ -363,47 +662,164 @@ public class Database {
             int z,
             String blockType,
             String blockData,
+            BlockData blockState,
             String rollbackSkipReason,
             BlockActionType action,
             long createdAt,
             BlockActionCause cause
     ) {
-        if (!isOpen()) {
-            return null;
+        if (!acceptsRecords()) {
+            return NO_EVENT;
         }
-
-        if (!reserveQueueSlot()) {
-            warnQueueFull("event");
-            return null;
+        if (shardPerWorld) {
+            return shardFor(worldName).enqueueBlockAction(playerUuid, playerName, worldName, x, y, z,
+                    blockType, blockData, blockState, rollbackSkipReason, action, createdAt, cause);
         }
 
-        UUID uuid = UUID.randomUUID();
-
-        try {
-            pendingActions.add(new PendingBlockAction(
-                    uuid.toString(),
+        int actionCode = action.getCode();
+        int causeCode = cause == null ? 0 : cause.getCode();
+        long id = eventIds.next(createdAt);
+        if (stagesOnThisThread()) {
+            staged.addEvent(id, playerUuid, playerName, worldName, x, y, z, blockType, blockData, blockState,
+                    rollbackSkipReason, actionCode, causeCode, createdAt);
+            return id;
+        }
+        long position = claimQueueSlot();
+        if (position < 0) {
+            // A shard that is still opening has not recovered its spill file yet.
+            if (!open || !spill.appendEvent(
+                    id,
                     playerUuid,
                     playerName,
                     worldName,
                     x, y, z,
                     blockType,
-                    blockData,
+                    blockState != null ? blockState.getAsString() : blockData,
                     rollbackSkipReason,
-                    action,
-                    createdAt,
-                    cause
-            ));
-        } catch (RuntimeException e) {
-            pendingCount.decrementAndGet();
-            throw e;
+                    actionCode,
+                    causeCode,
+                    createdAt
+            )) {
+                warnQueue("BlockLog queue and spill file are full; dropping event records.");
+                return NO_EVENT;
+            }
+            onSpilled();
+            return id;
+        }
+
+        ingest.putEvent(
+                position,
+                id,
+                playerUuid,
+                playerName,
+                worldName,
+                x, y, z,
+                blockType,
+                blockData,
+                blockState,
+                rollbackSkipReason,
+                actionCode,
+                causeCode,
+                createdAt
+        );
+        ingest.publish(position);
+        onQueued(position, 1);
+
+        return id;
+    }
+
+    /**
+     * Queues one event per block of a single world, all with the same actor, action, time and cause, such as
+     * the blocks destroyed by one explosion. The list is claimed in one step and published at once, and under
+     * backpressure it is spilled or dropped as a whole, so it is never logged in part. Returns the number of
+     * events queued: all of them or none.
+     */
+    public int enqueueBlockActions(
+            UUID playerUuid,
+            String playerName,
+            List<BlockChange> blocks,
+            BlockActionType action,
+            long createdAt,
+            BlockActionCause cause
+    ) {
+        if (blocks.isEmpty() || !acceptsRecords()) {
+            return 0;
+        }
+        if (shardPerWorld) {
+            return shardFor(blocks.get(0).worldName()).enqueueBlockActions(playerUuid, playerName, blocks,
+                    action, createdAt, cause);
+        }
+
+        int count = blocks.size();
+        int actionCode = action.getCode();
+        int causeCode = cause == null ? 0 : cause.getCode();
+        long firstId = eventIds.nextRange(createdAt, count);
+        BlockGroup group = BlockGroup.of(blocks);
+        if (group.fitsOneRow()) {
+            return enqueueGroup(firstId, playerUuid, playerName, group, actionCode, causeCode, createdAt)
+                    ? count
+                    : 0;
+        }
+
+        // Too spread out to store as one row: one event per block, claimed and published together.
+        long position = claimQueueSlots(count);
+        if (position < 0) {
+            if (!open || !spill.appendEvents(firstId, playerUuid, playerName, blocks, actionCode, causeCode,
+                    createdAt)) {
+                warnQueue("BlockLog queue and spill file are full; dropping event records.");
+                return 0;
+            }
+            onSpilled();
+            return count;
+        }
+
+        for (int i = 0; i < count; i++) {
+            BlockChange block = blocks.get(i);
+            ingest.putEvent(
+                    position + i,
+                    firstId + i,
+                    playerUuid,
+                    playerName,
+                    block.worldName(),
+                    block.x(), block.y(), block.z(),
+                    block.blockType(),
+                    null,
+                    block.blockData(),
+                    block.rollbackSkipReason(),
+                    actionCode,
+                    causeCode,
+                    createdAt
+            );
+        }
+        ingest.publishRun(position, count);
+        onQueued(position, count);
+
+        return count;
+    }
+
+    private boolean enqueueGroup(long firstId, UUID playerUuid, String playerName, BlockGroup group,
+                                 int actionCode, int causeCode, long createdAt) {
+        long position = claimQueueSlot();
+        if (position < 0) {
+            if (!open || !spill.appendGroup(firstId, playerUuid, playerName, group, actionCode, causeCode,
+                    createdAt)) {
+                warnQueue("BlockLog queue and spill file are full; dropping event records.");
+                return false;
+            }
+            onSpilled();
+            return true;
         }
 
-        return uuid.toString();
+        ingest.putGroup(position, firstId, playerUuid, playerName, group, actionCode, causeCode, createdAt);
+        ingest.publish(position);
+        onQueued(position, 1);
+        return true;
     }
 
     public void enqueueContainerTransaction(
-            String eventId,
-            String playerUuid,
+            long eventId,
+            long eventCreatedAt,
+            UUID playerUuid,
             String playerName,
             String worldName,
             int x,
@@ -413,26 +829,33 @@ public class Database {
             int delta,
             long createdAt
     ) {
-        if (!isOpen()) {
+        if (!acceptsRecords()) {
             return;
         }
-        if (eventId == null) {
+        if (eventId == NO_EVENT) {
             return;
         }
         if (delta == 0) {
             return;
         }
-
-        if (!reserveQueueSlot()) {
-            warnQueueFull("container transaction");
+        if (shardPerWorld) {
+            shardFor(worldName).enqueueContainerTransaction(eventId, eventCreatedAt, playerUuid, playerName,
+                    worldName, x, y, z, itemType, delta, createdAt);
             return;
         }
 
-        UUID id = UUID.randomUUID();
-        try {
-            pendingContainerTransactions.add(new PendingContainerTransaction(
-                    id.toString(),
+        long id = eventIds.next(createdAt);
+        if (stagesOnThisThread()) {
+            staged.addTransaction(id, eventId, eventCreatedAt, playerUuid, playerName, worldName, x, y, z, itemType,
+                    delta, createdAt);
+            return;
+        }
+        long position = claimQueueSlot();
+        if (position < 0) {
+            if (!open || !spill.appendTransaction(
+                    id,
                     eventId,
+                    eventCreatedAt,
                     playerUuid,
                     playerName,
                     worldName,
@@ -440,11 +863,158 @@ public class Database {
                     itemType,
                     delta,
                     createdAt
-            ));
-        } catch (RuntimeException e) {
-            pendingCount.decrementAndGet();
-            throw e;
+            )) {
+                warnQueue("BlockLog queue and spill file are full; dropping container transaction records.");
+                return;
+            }
+            onSpilled();
+            return;
+        }
+
+        ingest.putTransaction(
+                position,
+                id,
+                eventId,
+                eventCreatedAt,
+                playerUuid,
+                playerName,
+                worldName,
+                x, y, z,
+                itemType,
+                delta,
+                createdAt
+        );
+        ingest.publish(position);
+        onQueued(position, 1);
+    }
+
+    private boolean stagesOnThisThread() {
+        return staged != null && plugin.getServer().isPrimaryThread();
+    }
+
+    /**
+     * Hands the records the server thread queued since the last call to the writer: one claim for all of them,
+     * then one publish, instead of a claim and a publish per record. Called at the end of every tick, and before
+     * anything that must see them in the database. Server thread only.
+     */
+    public void publishStaged() {
+        for (Database shard : shards.values()) {
+            shard.publishStaged();
+        }
+        if (staged == null || staged.size() == 0) {
+            return;
+        }
+
+        int count = staged.size();
+        int kept = count;
+        if (!droppedStagedEvents.isEmpty()) {
+            for (int i = 0; i < count; i++) {
+                if (isOrphan(i)) {
+                    kept--;
+                }
+            }
+        }
+        long position = !acceptsRecords() ? -1L : kept == 0 ? 0L : claimQueueSlots(kept);
+        if (position >= 0 && kept > 0) {
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                if (!isOrphan(i)) {
+                    staged.copyInto(ingest, position + next++, i);
+                }
+            }
+            ingest.publishAll(position, kept);
+            onQueued(position, kept);
+        } else if (position < 0 && acceptsRecords()) {
+            spillStaged(count);
+        }
+        staged.clear();
+    }
+
+    /** True for a staged transaction whose event was dropped by an earlier hand-off. */
+    private boolean isOrphan(int i) {
+        return staged.kind(i) == IngestRing.TRANSACTION && droppedStagedEvents.contains(staged.eventId(i));
+    }
+
+    private void spillStaged(int count) {
+        boolean spilled = false;
+        for (int i = 0; i < count; i++) {
+            // A shard that is still opening has not recovered its spill file yet.
+            if (!isOrphan(i) && open && staged.spillInto(spill, i)) {
+                spilled = true;
+                continue;
+            }
+            if (staged.kind(i) == IngestRing.EVENT) {
+                droppedStagedEvents.add(staged.id(i));
+                if (droppedStagedEvents.size() > MAX_DROPPED_STAGED_EVENTS) {
+                    droppedStagedEvents.remove(droppedStagedEvents.iterator().next());
+                }
+            }
+            warnQueue("BlockLog queue and spill file are full; dropping event records.");
+        }
+        if (spilled) {
+            onSpilled();
+        }
+    }
+
+    /**
+     * Whether records may be queued. A shard accepts them while it is still opening, so the first events of a
+     * world are not lost; they are written once the shard is open.
+     */
+    private boolean acceptsRecords() {
+        return !closing && (open || shardWorld != null);
+    }
+
+    private Database shardFor(String worldName) {
+        return shards.computeIfAbsent(worldName, this::openShard);
+    }
+
+    private Database openShard(String worldName) {
+        Database shard = new Database(plugin, shardFolder(worldName), worldName, eventIds);
+        shard.flushMetrics = flushMetrics;
+        shard.opened = shard.openAsync();
+        shard.opened.whenComplete((ignored, error) -> {
+            if (error != null) {
+                plugin.getLogger().severe("Failed to open database for world " + worldName + ": "
+                        + error.getMessage());
+            }
+        });
+        return shard;
+    }
+
+    /**
+     * The open shard holding {@code worldName}, or null when that world has never logged anything. Shards left
+     * by earlier runs are opened on first use. Waits for the shard to finish opening.
+     */
+    private Database existingShard(String worldName) throws SQLException {
+        Database shard = shards.get(worldName);
+        if (shard == null) {
+            if (!shardFolder(worldName).isDirectory()) {
+                return null;
+            }
+            shard = shardFor(worldName);
+        }
+        awaitOpened(shard);
+        return shard;
+    }
+
+    private static void awaitOpened(Database shard) throws SQLException {
+        try {
+            shard.opened.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new SQLException("Database for world " + shard.shardWorld + " is not available.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while opening database for world " + shard.shardWorld + ".", e);
+        }
+    }
+
+    private File shardFolder(String worldName) {
+        String folder = worldName.replaceAll("[^A-Za-z0-9_.-]", "_");
+        if (!folder.equals(worldName)) {
+            // Keep two world names that sanitize alike in separate folders.
+            folder += "-" + Integer.toHexString(worldName.hashCode());
         }
+        return new File(new File(dataFolder, "shards"), folder);
     }
 
     public CompletableFuture<Void> createRollbackAudit(RollbackAuditStart audit) {
@@ -527,67 +1097,601 @@ public class Database {
         }
     }
 
-    private void validateSchema() throws SQLException {
-        boolean hasBlockData = false;
-        boolean hasRollbackSkipReason = false;
-        try (Statement stmt = writeConnection.createStatement();
-             ResultSet columns = stmt.executeQuery("PRAGMA table_info(events);")) {
-            while (columns.next()) {
-                if ("block_data".equals(columns.getString("name"))) {
-                    hasBlockData = true;
-                } else if ("rollback_skip_reason".equals(columns.getString("name"))) {
-                    hasRollbackSkipReason = true;
-                }
+    private void validateSchema(String schema) throws SQLException {
+        int version;
+        boolean hasTables;
+        try (Statement stmt = writeConnection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".user_version;")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT 1 FROM " + schema + ".sqlite_master WHERE type = 'table' LIMIT 1;")) {
+                hasTables = rs.next();
             }
         }
 
-        if (!hasBlockData || !hasRollbackSkipReason) {
+        // A fresh file gets the current schema. Anything else must already be on it.
+        if (version == 0 && !hasTables) {
+            return;
+        }
+        if (version != SCHEMA_VERSION) {
             throw new SQLException(
-                    "Unsupported pre-release database schema. Remove blocklog.sqlite and restart."
+                    "Unsupported pre-release database schema. Remove blocklog.sqlite and its partitions, "
+                            + "then restart."
             );
         }
     }
 
-    private void failInterruptedRollbackAudits() throws SQLException {
-        String sql = """
-                UPDATE rollback_audits
-                SET completed_at = ?, status = ?, details = ?
-                WHERE status = ?;
-                """;
-        try (PreparedStatement ps = writeConnection.prepareStatement(sql)) {
-            ps.setLong(1, System.currentTimeMillis());
-            ps.setString(2, RollbackAuditStatus.FAILED.name());
-            ps.setString(3, "Server stopped before rollback completion");
-            ps.setString(4, RollbackAuditStatus.RUNNING.name());
-            ps.executeUpdate();
+    /**
+     * Writes the journal segments left by a previous run that did not shut down cleanly. Rows that already
+     * reached SQLite are skipped by the inserts, so replaying them again is harmless.
+     */
+    private void replayJournal() throws SQLException {
+        if (journal == null) {
+            return;
         }
-    }
-
-    private void applyReadPragmas(Connection c) throws SQLException {
-        try (Statement stmt = c.createStatement()) {
-            stmt.execute("PRAGMA query_only=ON;");
-            stmt.execute("PRAGMA busy_timeout=5000;");
+        List<File> segments = journal.segments();
+        if (segments.isEmpty()) {
+            return;
         }
-    }
 
-    private boolean reserveQueueSlot() {
-        while (true) {
-            int current = pendingCount.get();
-            if (current >= MAX_QUEUE_SIZE) {
-                return false;
-            }
-            if (pendingCount.compareAndSet(current, current + 1)) {
-                return true;
+        long replayed = 0;
+        try {
+            for (File segment : segments) {
+                // Cuts a segment off at its first frame that does not check out, so the rest reads cleanly.
+                long records = RecordCodec.trimToLastRecord(segment);
+                long remaining = segment.length();
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(segment), 1 << 16))) {
+                    for (long i = 0; i < records; i++) {
+                        if (ingest.retainedBytes() >= queueMemoryBudget) {
+                            flushPendingActions(FlushMetrics.Trigger.RECOVERY);
+                        }
+                        byte[] payload = RecordCodec.readFrame(in, remaining);
+                        remaining -= RecordCodec.FRAME_HEADER_BYTES + payload.length;
+                        long position;
+                        while ((position = ingest.claim(1)) < 0) {
+                            flushPendingActions(FlushMetrics.Trigger.RECOVERY);
+                        }
+                        RecordCodec.readInto(payload, ingest, position);
+                        ingest.publish(position);
+                    }
+                }
+                replayed += records;
             }
+        } catch (IOException e) {
+            throw new SQLException("Could not read ingest journal: " + e.getMessage(), e);
+        }
+        while (!ingest.isEmpty() && flushPendingActions(FlushMetrics.Trigger.RECOVERY) > 0) {
+            // Everything replayed must be committed before the segments go away.
+        }
+        // Replayed events that had already been merged are staged again; merging drops those copies.
+        for (WriterPartition partition : List.copyOf(writerPartitions.values())) {
+            mergeAllRecent(partition);
+        }
+        if (!checkpoint()) {
+            throw new SQLException("Could not checkpoint replayed journal records.");
+        }
+        journal.discard();
+        plugin.getLogger().info("Replayed " + replayed + " journaled records left by the previous run.");
+    }
+
+    private void startJournal() throws SQLException {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.start(ingest.head());
+        } catch (IOException e) {
+            throw new SQLException("Could not start ingest journal: " + e.getMessage(), e);
+        }
+    }
+
+    private void recoverSpilledRecords() throws SQLException {
+        long spilled;
+        try {
+            spilled = spill.recover();
+        } catch (IOException e) {
+            throw new SQLException("Could not read queue spill file: " + e.getMessage(), e);
+        }
+        if (spilled == 0) {
+            return;
+        }
+
+        plugin.getLogger().info("Writing " + spilled + " records spilled to disk by the previous run.");
+        while ((spill.isActive() || !ingest.isEmpty())
+                && flushPendingActions(FlushMetrics.Trigger.RECOVERY) > 0) {
+            // Drain the spill file completely before accepting new records.
+        }
+        // The spill file is only emptied once its records commit, so ones committed before a crash were written again;
+        // merging drops the copies that had already left the staging table.
+        for (WriterPartition partition : List.copyOf(writerPartitions.values())) {
+            mergeAllRecent(partition);
+        }
+    }
+
+    private void seedEventIds() throws SQLException {
+        // Ids follow time, so the highest ones sit in the newest partitions. A row can sit in an older partition
+        // than its id: a transaction with its parent event, or an event logged with an earlier time than it was
+        // queued at. Hence the second one.
+        List<Partitions.Partition> newest = partitions.newestFirst();
+        for (Partitions.Partition partition : newest.subList(0, Math.min(2, newest.size()))) {
+            String schema = writerPartition(partition).partition.schema();
+            try (Statement stmt = writeConnection.createStatement()) {
+                for (String table : List.of("events", "events_recent", "container_transactions")) {
+                    try (ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM " + schema + "." + table + ";")) {
+                        if (rs.next()) {
+                            eventIds.advancePast(rs.getLong(1));
+                        }
+                    }
+                }
+                // A group's blocks use the ids after its own.
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT MAX(id + block_count - 1) FROM " + schema + ".event_groups;")) {
+                    if (rs.next()) {
+                        eventIds.advancePast(rs.getLong(1));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The partition attached to the write connection, attaching and if needed creating it first. Must not be
+     * called inside a transaction, since SQLite cannot ATTACH there.
+     */
+    private WriterPartition writerPartition(Partitions.Partition partition) throws SQLException {
+        WriterPartition attached = writerPartitions.get(partition);
+        if (attached != null) {
+            return attached;
+        }
+
+        File folder = partitions.folder();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new SQLException("Could not create partition folder: " + folder.getAbsolutePath());
+        }
+        String schema = partition.schema();
+        try (PreparedStatement ps = writeConnection.prepareStatement("ATTACH DATABASE ? AS " + schema + ";")) {
+            ps.setString(1, partition.file().getAbsolutePath());
+            ps.execute();
+        }
+        try {
+            validateSchema(schema);
+            try (Statement stmt = writeConnection.createStatement()) {
+                stmt.execute("PRAGMA " + schema + ".auto_vacuum=INCREMENTAL;");
+                stmt.execute("PRAGMA " + schema + ".journal_mode=WAL;");
+                stmt.execute(durability == Durability.FULL
+                        ? "PRAGMA " + schema + ".synchronous=FULL;"
+                        : "PRAGMA " + schema + ".synchronous=NORMAL;");
+            }
+            createPartitionTables(schema);
+        } catch (SQLException e) {
+            detachQuietly(writeConnection, partition);
+            throw e;
+        }
+
+        attached = new WriterPartition(partition);
+        try (Statement stmt = writeConnection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + schema + ".events_recent;")) {
+            attached.recentRows = rs.next() ? rs.getInt(1) : 0;
+        }
+        writerPartitions.put(partition, attached);
+        partitions.add(partition);
+        return attached;
+    }
+
+    /** Detaches the least recently written partitions beyond the limit, keeping those of the current flush. */
+    private void detachIdlePartitions() {
+        Iterator<WriterPartition> eldest = writerPartitions.values().iterator();
+        while (writerPartitions.size() > MAX_WRITER_PARTITIONS && eldest.hasNext()) {
+            WriterPartition partition = eldest.next();
+            if (partition.lastFlush == flushCount) {
+                continue;
+            }
+            try {
+                mergeAllRecent(partition);
+            } catch (SQLException e) {
+                // Reads cover events_recent too; the rest is merged when the partition is written again.
+                plugin.getLogger().warning("Could not merge recent events of " + partition.partition.file().getName()
+                        + ": " + e.getMessage());
+            }
+            partition.closeStatements();
+            eldest.remove();
+            detachQuietly(writeConnection, partition.partition);
+        }
+    }
+
+    private void scheduleMerge() {
+        if (closing || mergeFuture != null) {
+            return;
+        }
+        mergeFuture = dbExecutor.schedule(this::runMergeStep, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /** Merges one batch from each partition holding a full batch, then yields to any flush queued meanwhile. */
+    private void runMergeStep() {
+        mergeFuture = null;
+        boolean more = false;
+        try {
+            for (WriterPartition partition : List.copyOf(writerPartitions.values())) {
+                if (partition.recentRows >= mergeRows) {
+                    mergeRecent(partition);
+                    more |= partition.recentRows >= mergeRows;
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("Merging recent events failed: " + e.getMessage());
+            return;
+        }
+        if (more) {
+            scheduleMerge();
+        }
+    }
+
+    private void mergeAllRecent(WriterPartition partition) throws SQLException {
+        while (partition.recentRows > 0 && mergeRecent(partition) > 0) {
+            // One batch per transaction, so the write lock is released in between.
+        }
+    }
+
+    /**
+     * Moves the oldest batch of staged events of {@code partition} into events in one transaction. They are written
+     * in key order, so the B-tree takes the batch as sorted runs instead of one scattered insert per flushed row.
+     * Returns the rows moved.
+     */
+    private int mergeRecent(WriterPartition partition) throws SQLException {
+        String schema = partition.partition.schema();
+        long lastId;
+        try (PreparedStatement ps = writeConnection.prepareStatement(
+                "SELECT MAX(id) FROM (SELECT id FROM " + schema + ".events_recent ORDER BY id LIMIT ?);")) {
+            ps.setInt(1, mergeRows);
+            try (ResultSet rs = ps.executeQuery()) {
+                lastId = rs.next() ? rs.getLong(1) : 0L;
+                if (lastId == 0L || rs.wasNull()) {
+                    partition.recentRows = 0;
+                    return 0;
+                }
+            }
+        }
+
+        int moved = 0;
+        boolean oldAutoCommit = writeConnection.getAutoCommit();
+        writeConnection.setAutoCommit(false);
+        try {
+            for (String merge : PartitionSchema.MERGE_SQL) {
+                try (PreparedStatement ps = writeConnection.prepareStatement(
+                        merge.formatted(schema, PartitionSchema.EVENT_FIELDS))) {
+                    ps.setLong(1, lastId);
+                    moved = ps.executeUpdate();
+                }
+            }
+            writeConnection.commit();
+        } catch (SQLException e) {
+            try {
+                writeConnection.rollback();
+            } catch (SQLException rollbackEx) {
+                e.addSuppressed(rollbackEx);
+            }
+            throw e;
+        } finally {
+            writeConnection.setAutoCommit(oldAutoCommit);
+        }
+        // Replayed copies of merged events are dropped on the way.
+        entriesChanged(partition.partition);
+        partition.recentRows = Math.max(0, partition.recentRows - moved);
+        return moved;
+    }
+
+    private static void detachQuietly(Connection c, Partitions.Partition partition) {
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("DETACH DATABASE " + partition.schema() + ";");
+        } catch (SQLException ignored) {
+        }
+    }
+
+    /** Attaches a partition to a read connection for one query. Returns false if it was dropped meanwhile. */
+    private static boolean attachForRead(Connection c, Partitions.Partition partition) throws SQLException {
+        if (!partition.file().exists()) {
+            return false;
+        }
+        try (PreparedStatement ps = c.prepareStatement("ATTACH DATABASE ? AS " + partition.schema() + ";")) {
+            ps.setString(1, partition.file().toPath().toUri() + "?mode=ro");
+            ps.execute();
+        }
+        return true;
+    }
+
+    /**
+     * Deletes partitions that ended more than the retention period ago. Each is a whole file, so this takes
+     * no write transaction at all.
+     */
+    private void dropExpiredPartitions() {
+        if (retentionMillis <= 0 || writeConnection == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        for (Partitions.Partition partition : partitions.endingBefore(cutoff)) {
+            WriterPartition attached = writerPartitions.remove(partition);
+            if (attached != null) {
+                attached.closeStatements();
+                detachQuietly(writeConnection, partition);
+            }
+            partitions.remove(partition);
+            entriesChanged(partition);
+            String path = partition.file().getPath();
+            for (File file : List.of(partition.file(), new File(path + "-wal"), new File(path + "-shm"))) {
+                if (file.exists() && !file.delete()) {
+                    plugin.getLogger().warning("Could not delete expired partition file " + file.getName() + ".");
+                }
+            }
+            plugin.getLogger().info("Dropped expired history partition " + partition.file().getName() + ".");
+        }
+    }
+
+    /**
+     * Enforces retention: whole partitions past it are dropped at once, then the rows that expired inside the
+     * partition straddling the cutoff, and old rollback audits, are purged in small slices between flushes.
+     */
+    private void startRetentionPass() {
+        dropExpiredPartitions();
+        if (writeConnection == null) {
+            return;
+        }
+        purgeCutoff = System.currentTimeMillis() - retentionMillis;
+        if (purgeFuture == null) {
+            purgedRows = 0;
+            purgeStartedNanos = System.nanoTime();
+            lastPurgeReportNanos = purgeStartedNanos;
+            purgeFuture = dbExecutor.schedule(this::runPurgeSlice, 0L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Purges chunks until the slice budget is spent or a flush is waiting behind it, so a pending flush is never
+     * delayed by much more than the budget.
+     */
+    private void runPurgeSlice() {
+        long deadline = System.nanoTime() + purgeBudgetNanos;
+        boolean finished = false;
+        try {
+            while (System.nanoTime() < deadline && !earlyFlushRequested.get()) {
+                if (!purgeChunk()) {
+                    finished = true;
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().severe("Retention purge failed: " + e.getMessage());
+            finished = true;
         }
-    }
 
-    private void warnQueueFull(String recordType) {
+        long now = System.nanoTime();
+        long elapsed = now - purgeStartedNanos;
+        flushMetrics.purgeProgress(purgedRows, elapsed, finished);
+        if (finished) {
+            if (purgedRows > 0) {
+                plugin.getLogger().info("Retention purge finished: " + purgedRows + " rows removed in "
+                        + TimeUnit.NANOSECONDS.toSeconds(elapsed) + " s (" + rowsPerSecond(purgedRows, elapsed)
+                        + " rows/s).");
+            }
+            purgeFuture = null;
+            return;
+        }
+        if (now - lastPurgeReportNanos >= PURGE_REPORT_INTERVAL_NANOS) {
+            lastPurgeReportNanos = now;
+            plugin.getLogger().info("Retention purge: " + purgedRows + " rows removed so far ("
+                    + rowsPerSecond(purgedRows, elapsed) + " rows/s).");
+        }
+        purgeFuture = closing ? null : dbExecutor.schedule(this::runPurgeSlice, PURGE_PAUSE_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static long rowsPerSecond(long rows, long nanos) {
+        return nanos <= 0 ? rows : rows * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    /** Purges one chunk or vacuums one step. Returns false once nothing is left to do. */
+    private boolean purgeChunk() throws SQLException {
+        long cutoffId = EventIdGenerator.firstIdAt(purgeCutoff);
+        for (Partitions.Partition partition : partitions.startingBefore(purgeCutoff)) {
+            String schema = writerPartition(partition).partition.schema();
+            String[] deletes = {
+                    // Children first, so no transaction is left without its event after a chunk.
+                    """
+                    DELETE FROM %1$s.container_transactions
+                    WHERE event_id IN (SELECT id FROM %1$s.events WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema),
+                    """
+                    DELETE FROM %1$s.event_summaries
+                    WHERE event_id IN (SELECT id FROM %1$s.events WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema),
+                    """
+                    DELETE FROM %1$s.events
+                    WHERE id IN (SELECT id FROM %1$s.events WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema)
+            };
+            String[] recentDeletes = {
+                    """
+                    DELETE FROM %1$s.container_transactions
+                    WHERE event_id IN (SELECT id FROM %1$s.events_recent WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema),
+                    """
+                    DELETE FROM %1$s.event_summaries
+                    WHERE event_id IN (SELECT id FROM %1$s.events_recent WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema),
+                    """
+                    DELETE FROM %1$s.events_recent
+                    WHERE id IN (SELECT id FROM %1$s.events_recent WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema)
+            };
+            String groupDelete = """
+                    DELETE FROM %1$s.event_groups
+                    WHERE id IN (SELECT id FROM %1$s.event_groups WHERE id < ? ORDER BY id LIMIT ?);
+                    """.formatted(schema);
+            if (deleteChunk(recentDeletes, cutoffId) > 0 || deleteChunk(deletes, cutoffId) > 0
+                    || deleteChunk(new String[] {groupDelete}, cutoffId) > 0) {
+                entriesChanged(partition);
+                return true;
+            }
+            if (vacuumStep(schema)) {
+                return true;
+            }
+        }
+
+        String auditDelete = """
+                DELETE FROM rollback_audits
+                WHERE id IN (
+                    SELECT id FROM rollback_audits WHERE started_at < ? AND status <> 'RUNNING' LIMIT ?
+                );
+                """;
+        return deleteChunk(new String[] {auditDelete}, purgeCutoff) > 0 || vacuumStep("main");
+    }
+
+    /**
+     * Runs {@code deletes}, each bound to the cutoff and the chunk size, as one transaction. Adapts the chunk
+     * size so a chunk takes about a quarter of the slice budget. Returns the rows removed by the last statement.
+     */
+    private int deleteChunk(String[] deletes, long cutoff) throws SQLException {
+        long started = System.nanoTime();
+        int removed = 0;
+        int last = 0;
+        boolean oldAutoCommit = writeConnection.getAutoCommit();
+        writeConnection.setAutoCommit(false);
+        try {
+            for (String delete : deletes) {
+                try (PreparedStatement ps = writeConnection.prepareStatement(delete)) {
+                    ps.setLong(1, cutoff);
+                    ps.setInt(2, purgeChunkSize);
+                    last = ps.executeUpdate();
+                    removed += last;
+                }
+            }
+            writeConnection.commit();
+        } catch (SQLException e) {
+            try {
+                writeConnection.rollback();
+            } catch (SQLException rollbackEx) {
+                e.addSuppressed(rollbackEx);
+            }
+            throw e;
+        } finally {
+            writeConnection.setAutoCommit(oldAutoCommit);
+        }
+
+        if (last > 0) {
+            purgedRows += removed;
+            double nanosPerRow = Math.max(1.0, (double) (System.nanoTime() - started) / last);
+            long desired = (long) (purgeBudgetNanos / 4 / nanosPerRow);
+            purgeChunkSize = (int) Math.max(MIN_PURGE_CHUNK, Math.min(MAX_PURGE_CHUNK, desired));
+        }
+        return last;
+    }
+
+    /** Returns free pages of {@code schema} to the file system, a few at a time. False once there are none. */
+    private boolean vacuumStep(String schema) throws SQLException {
+        try (Statement stmt = writeConnection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".auto_vacuum;")) {
+                // Only files created with incremental auto-vacuum can shrink without a full VACUUM.
+                if (!rs.next() || rs.getInt(1) != 2) {
+                    return false;
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA " + schema + ".freelist_count;")) {
+                if (!rs.next() || rs.getInt(1) == 0) {
+                    return false;
+                }
+            }
+            stmt.execute("PRAGMA " + schema + ".incremental_vacuum(" + PURGE_VACUUM_PAGES + ");");
+        }
+        return true;
+    }
+
+    private void failInterruptedRollbackAudits() throws SQLException {
+        String sql = """
+                UPDATE rollback_audits
+                SET completed_at = ?, status = ?, details = ?
+                WHERE status = ?;
+                """;
+        try (PreparedStatement ps = writeConnection.prepareStatement(sql)) {
+            ps.setLong(1, System.currentTimeMillis());
+            ps.setString(2, RollbackAuditStatus.FAILED.name());
+            ps.setString(3, "Server stopped before rollback completion");
+            ps.setString(4, RollbackAuditStatus.RUNNING.name());
+            ps.executeUpdate();
+        }
+    }
+
+    private void applyReadPragmas(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("PRAGMA query_only=ON;");
+            stmt.execute("PRAGMA busy_timeout=5000;");
+        }
+    }
+
+    /**
+     * Claims a ring slot, or returns -1 when the record must be spilled instead: the ring or its memory budget
+     * is full, or earlier records are still spilled and must be written first.
+     */
+    private long claimQueueSlot() {
+        return claimQueueSlots(1);
+    }
+
+    private long claimQueueSlots(int count) {
+        if (spill.isActive() || ingest.retainedBytes() >= queueMemoryBudget) {
+            return -1L;
+        }
+        return ingest.claim(count);
+    }
+
+    private void onSpilled() {
+        warnQueue("BlockLog queue is over its memory budget; spilling records to disk.");
+        requestEarlyFlush();
+    }
+
+    private void onQueued(long position, int count) {
+        long depth = position + count - ingest.head();
+        int earlyFlushDepth = flushScheduler.earlyFlushDepth();
+        if (depth >= earlyFlushDepth && depth - count < earlyFlushDepth) {
+            requestEarlyFlush();
+        } else if (depth == count && flushLoopIdle.get()) {
+            wakeFlushLoop();
+        }
+    }
+
+    private void requestEarlyFlush() {
+        if (!earlyFlushRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            dbExecutor.execute(() -> {
+                earlyFlushRequested.set(false);
+                flushPendingActionsSafe(FlushMetrics.Trigger.WATERMARK);
+            });
+        } catch (RejectedExecutionException e) {
+            earlyFlushRequested.set(false);
+        }
+    }
+
+    private void wakeFlushLoop() {
+        if (!flushLoopIdle.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            dbExecutor.execute(() -> {
+                if (flushFuture != null && flushScheduler.isIdle() && flushFuture.cancel(false)) {
+                    scheduleFlush(flushScheduler.nextDelayMillis(true));
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private void warnQueue(String message) {
         long now = System.nanoTime();
         long previous = lastQueueWarningNanos.get();
         if ((previous == 0 || now - previous >= QUEUE_WARNING_INTERVAL_NANOS)
                 && lastQueueWarningNanos.compareAndSet(previous, now)) {
-            plugin.getLogger().warning("BlockLog queue full; dropping " + recordType + " records.");
+            plugin.getLogger().warning(message);
         }
     }
 
@@ -596,12 +1700,33 @@ public class Database {
             return;
         }
 
-        flushFuture = dbExecutor.scheduleAtFixedRate(
-                this::flushPendingActionsSafe,
-                FLUSH_INTERVAL_SECONDS,
-                FLUSH_INTERVAL_SECONDS,
-                TimeUnit.SECONDS
-        );
+        scheduleFlush(flushScheduler.baseDelayMillis());
+        if (retentionMillis > 0) {
+            retentionFuture = dbExecutor.scheduleWithFixedDelay(this::startRetentionPass,
+                    0L, RETENTION_CHECK_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        boolean idle = flushScheduler.isIdle();
+        flushLoopIdle.set(idle);
+        // A record may have arrived before the idle flag was visible to producers.
+        if (idle && (!ingest.isEmpty() || spill.isActive())) {
+            flushLoopIdle.set(false);
+            delayMillis = flushScheduler.nextDelayMillis(true);
+            idle = false;
+        }
+        flushFuture = dbExecutor.schedule(this::runScheduledFlush, delayMillis, TimeUnit.MILLISECONDS);
+        flushMetrics.flushScheduled(delayMillis, idle);
+    }
+
+    private void runScheduledFlush() {
+        flushPendingActionsSafe(FlushMetrics.Trigger.SCHEDULED);
+        boolean hadWork = rowsSinceScheduledFlush > 0;
+        rowsSinceScheduledFlush = 0;
+        if (!closing && flushFuture != null) {
+            scheduleFlush(flushScheduler.nextDelayMillis(hadWork));
+        }
     }
 
     private void stopDbFlushLoop() {
@@ -609,133 +1734,162 @@ public class Database {
             flushFuture.cancel(false);
             flushFuture = null;
         }
+        if (retentionFuture != null) {
+            retentionFuture.cancel(false);
+            retentionFuture = null;
+        }
+        if (purgeFuture != null) {
+            purgeFuture.cancel(false);
+            purgeFuture = null;
+        }
+        if (mergeFuture != null) {
+            mergeFuture.cancel(false);
+            mergeFuture = null;
+        }
     }
 
-    private void flushPendingActionsSafe() {
+    private void flushPendingActionsSafe(FlushMetrics.Trigger trigger) {
         try {
-            flushPendingActions();
+            flushPendingActions(trigger);
         } catch (Exception e) {
             plugin.getLogger().severe("Error flushing block actions: " + e.getMessage());
         }
     }
 
-    private void flushPendingActions() throws SQLException {
+    private int flushPendingActions(FlushMetrics.Trigger trigger) throws SQLException {
         if (writeConnection == null) {
-            pendingActions.clear();
-            pendingContainerTransactions.clear();
-            pendingCount.set(0);
-            return;
+            ingest.release(ingest.readable(Integer.MAX_VALUE));
+            return 0;
         }
 
-        List<PendingBlockAction> eventsBatch = new ArrayList<>();
-        PendingBlockAction action;
-        while (eventsBatch.size() < MAX_FLUSH_BATCH_SIZE
-                && (action = pendingActions.poll()) != null) {
-            eventsBatch.add(action);
-            pendingCount.decrementAndGet();
+        refillFromSpill();
+
+        if (trigger == FlushMetrics.Trigger.REQUESTED && journal != null && journal.isRunning()) {
+            journal.awaitSynced(ingest.head() + ingest.readable(Integer.MAX_VALUE),
+                    REQUESTED_FLUSH_JOURNAL_WAIT_MILLIS);
         }
 
-        List<PendingContainerTransaction> txBatch = new ArrayList<>();
-        PendingContainerTransaction tx;
-        if (pendingActions.isEmpty()) {
-            int remainingCapacity = MAX_FLUSH_BATCH_SIZE - eventsBatch.size();
-            while (txBatch.size() < remainingCapacity
-                    && (tx = pendingContainerTransactions.poll()) != null) {
-                txBatch.add(tx);
-                pendingCount.decrementAndGet();
+        // Records stay in the ring until their transaction commits, so a failed flush loses nothing.
+        int readable = ingest.readable(flushScheduler.batchSize());
+        int count = readable;
+        long limit = Long.MAX_VALUE;
+        if (journal != null && journal.isRunning()) {
+            // Only records already synced to the journal may reach SQLite, or a crash could lose them.
+            limit = journal.syncedPosition() - ingest.head();
+            count = (int) Math.min(count, limit);
+        }
+        // A bulk action commits in one transaction, even when that makes the batch larger than planned.
+        count = ingest.wholeRuns(count, limit);
+        if (count == 0) {
+            if (readable > 0 && (trigger == FlushMetrics.Trigger.WATERMARK
+                    || trigger == FlushMetrics.Trigger.BACKLOG)) {
+                scheduleBacklogFlush();
             }
+            return 0;
         }
-
-        if (eventsBatch.isEmpty() && txBatch.isEmpty()) {
-            return;
+        long head = ingest.head();
+
+        long started = System.nanoTime();
+
+        // SQLite cannot ATTACH inside a transaction, so every partition this batch touches is attached first.
+        // A transaction goes where its parent event went, by the parent's creation time.
+        WriterPartition[] targets = new WriterPartition[count];
+        WriterPartition last = null;
+        for (int i = 0; i < count; i++) {
+            long position = head + i;
+            long timestamp = ingest.kind(position) == IngestRing.TRANSACTION
+                    ? ingest.eventCreatedAt(position)
+                    : ingest.createdAt(position);
+            if (last == null || timestamp < last.partition.start() || timestamp >= last.partition.end()) {
+                last = writerPartition(partitions.forTimestamp(timestamp));
+                last.lastFlush = flushCount;
+            }
+            targets[i] = last;
         }
+        detachIdlePartitions();
 
         boolean oldAutoCommit = writeConnection.getAutoCommit();
         writeConnection.setAutoCommit(false);
 
         try {
-            if (eventsInsertPs == null || eventsInsertPs.isClosed()) {
-                eventsInsertPs = writeConnection.prepareStatement(EVENTS_INSERT_SQL);
-            }
-            if (txInsertPs == null || txInsertPs.isClosed()) {
-                txInsertPs = writeConnection.prepareStatement(TX_INSERT_SQL);
-            }
-
-            for (PendingBlockAction a : eventsBatch) {
-                eventsInsertPs.setString(1, a.id());
-                eventsInsertPs.setString(2, a.playerUuid());
-                eventsInsertPs.setString(3, a.playerName());
-                eventsInsertPs.setString(4, a.worldName());
-                eventsInsertPs.setInt(5, a.x());
-                eventsInsertPs.setInt(6, a.y());
-                eventsInsertPs.setInt(7, a.z());
-                eventsInsertPs.setString(8, a.blockType());
-                eventsInsertPs.setString(9, a.blockData());
-                eventsInsertPs.setString(10, a.rollbackSkipReason());
-                eventsInsertPs.setInt(11, a.action().getCode());
-                eventsInsertPs.setLong(12, a.createdAt());
-                if (a.cause() != null) {
-                    eventsInsertPs.setInt(13, a.cause().getCode());
-                } else {
-                    eventsInsertPs.setNull(13, java.sql.Types.INTEGER);
+            for (int i = 0; i < count; i++) {
+                long position = head + i;
+                players.observe(writeConnection, ingest.playerUuid(position), ingest.playerName(position),
+                        ingest.createdAt(position));
+                switch (ingest.kind(position)) {
+                    case IngestRing.EVENT -> targets[i].addEvent(i);
+                    case IngestRing.GROUP -> targets[i].addGroup(i);
+                    default -> targets[i].addTransaction(i);
                 }
-                eventsInsertPs.addBatch();
-            }
-
-            for (PendingContainerTransaction t : txBatch) {
-                txInsertPs.setString(1, t.id());
-                txInsertPs.setString(2, t.eventId());
-                txInsertPs.setString(3, t.playerUuid());
-                txInsertPs.setString(4, t.playerName());
-                txInsertPs.setString(5, t.worldName());
-                txInsertPs.setInt(6, t.x());
-                txInsertPs.setInt(7, t.y());
-                txInsertPs.setInt(8, t.z());
-                txInsertPs.setString(9, t.itemType());
-                txInsertPs.setInt(10, t.delta());
-                txInsertPs.setLong(11, t.createdAt());
-                txInsertPs.addBatch();
             }
 
-            if (!eventsBatch.isEmpty()) {
-                eventsInsertPs.executeBatch();
-                eventsInsertPs.clearBatch();
-                eventsInsertPs.clearParameters();
+            // Parents always precede their transactions in the ring, and events execute first.
+            for (WriterPartition target : writerPartitions.values()) {
+                insertRows(target, head, true);
+                insertGroups(target, head);
             }
-            if (!txBatch.isEmpty()) {
-                txInsertPs.executeBatch();
-                txInsertPs.clearBatch();
-                txInsertPs.clearParameters();
+            for (WriterPartition target : writerPartitions.values()) {
+                int transactions = target.transactions;
+                insertRows(target, head, false);
+                updateSummaries(target, head, transactions, trigger == FlushMetrics.Trigger.RECOVERY);
             }
 
             writeConnection.commit();
+            worlds.commit();
+            materials.commit();
+            blockStates.commit();
+            players.commit();
+            for (WriterPartition target : writerPartitions.values()) {
+                if (target.lastFlush == flushCount) {
+                    entriesChanged(target.partition);
+                }
+            }
+            ingest.release(count);
+            releaseSpill();
+
+            long commitNanos = System.nanoTime() - started;
+            rowsSinceScheduledFlush += count;
+            flushScheduler.recordCommit(count, commitNanos);
+            flushMetrics.flushCompleted(trigger, count, commitNanos, ingest.size(), flushScheduler.batchSize());
 
             flushCount++;
+            if (journal != null && durability == Durability.FULL) {
+                journal.trim(ingest.head());
+            }
             if (flushCount % WAL_CHECKPOINT_INTERVAL == 0) {
-                try (Statement checkpointStmt = writeConnection.createStatement()) {
-                    checkpointStmt.execute("PRAGMA wal_checkpoint(PASSIVE);");
+                long released = ingest.head();
+                if (checkpoint() && journal != null) {
+                    journal.trim(released);
                 }
             }
 
-            if (!closing && pendingCount.get() > 0) {
-                dbExecutor.execute(this::flushPendingActionsSafe);
+            if (!ingest.isEmpty() || spill.isActive()) {
+                scheduleBacklogFlush();
             }
+            for (WriterPartition target : writerPartitions.values()) {
+                if (target.recentRows >= mergeRows) {
+                    scheduleMerge();
+                    break;
+                }
+            }
+            return count;
         } catch (SQLException e) {
-            closeQuietly(eventsInsertPs);
-            closeQuietly(txInsertPs);
-            eventsInsertPs = null;
-            txInsertPs = null;
+            for (WriterPartition target : writerPartitions.values()) {
+                target.closeStatements();
+                target.events = 0;
+                target.transactions = 0;
+                target.groups = 0;
+            }
 
             try {
                 writeConnection.rollback();
             } catch (SQLException rollbackEx) {
                 e.addSuppressed(rollbackEx);
             }
-
-            // Restore batches so we don't silently lose data.
-            pendingActions.addAll(eventsBatch);
-            pendingContainerTransactions.addAll(txBatch);
-            pendingCount.addAndGet(eventsBatch.size() + txBatch.size());
+            worlds.rollback();
+            materials.rollback();
+            blockStates.rollback();
+            players.rollback();
 
             plugin.getLogger().severe("Failed to flush batch: " + e.getMessage());
             throw e;
@@ -744,6 +1898,304 @@ public class Database {
         }
     }
 
+    /**
+     * Writes the events or the transactions collected for {@code target} with multi-row inserts, which cost one
+     * statement step per chunk instead of one per row.
+     */
+    private void insertRows(WriterPartition target, long head, boolean events) throws SQLException {
+        int[] rows = events ? target.eventRows : target.txRows;
+        int remaining = events ? target.events : target.transactions;
+        PreparedStatement[] statements = events ? target.eventInserts : target.txInserts;
+        int columns = events ? PartitionSchema.EVENT_COLUMNS : PartitionSchema.TX_COLUMNS;
+        int next = 0;
+        for (int size = 0; size < PartitionSchema.INSERT_ROWS.length; size++) {
+            int chunk = PartitionSchema.INSERT_ROWS[size];
+            while (remaining >= chunk) {
+                if (statements[size] == null) {
+                    String sql = events ? PartitionSchema.EVENTS_INSERT_SQL : PartitionSchema.TX_INSERT_SQL;
+                    statements[size] = writeConnection.prepareStatement(
+                            PartitionSchema.multiRowInsert(sql.formatted(target.partition.schema()), columns, chunk));
+                }
+                PreparedStatement ps = statements[size];
+                for (int row = 0; row < chunk; row++) {
+                    long position = head + rows[next++];
+                    if (events) {
+                        bindEvent(ps, row * columns, position);
+                    } else {
+                        bindTransaction(ps, row * columns, position);
+                    }
+                }
+                ps.executeUpdate();
+                remaining -= chunk;
+            }
+        }
+        if (events) {
+            target.recentRows += target.events;
+            target.events = 0;
+        } else {
+            target.transactions = 0;
+        }
+    }
+
+    /**
+     * Folds the {@code transactions} just written for {@code target} into the summaries of their events, so an
+     * inspection reads one row per event instead of counting and listing transactions. Replayed records may
+     * already have been written, so on {@code rebuild} the summaries are recounted from the table instead.
+     */
+    private void updateSummaries(WriterPartition target, long head, int transactions, boolean rebuild)
+            throws SQLException {
+        if (transactions == 0) {
+            return;
+        }
+        String schema = target.partition.schema();
+        // This batch's deltas of each event, newest first.
+        Map<Long, List<String>> added = new LinkedHashMap<>();
+        for (int i = transactions - 1; i >= 0; i--) {
+            long position = head + target.txRows[i];
+            added.computeIfAbsent(ingest.eventId(position), id -> new ArrayList<>())
+                    .add(ingest.type(position) + ":" + ingest.delta(position));
+        }
+
+        if (target.summaryUpsert == null) {
+            target.summaryUpsert = writeConnection.prepareStatement("""
+                    INSERT INTO %1$s.event_summaries (event_id, transaction_count, recent_items)
+                    VALUES (?, ?, ?)
+                    ON CONFLICT (event_id) DO UPDATE SET
+                        transaction_count = excluded.transaction_count,
+                        recent_items = excluded.recent_items;
+                    """.formatted(schema));
+        }
+        for (Map.Entry<Long, List<String>> entry : added.entrySet()) {
+            long eventId = entry.getKey();
+            int count;
+            String recentItems;
+            if (rebuild) {
+                if (target.summaryRebuild == null) {
+                    target.summaryRebuild = writeConnection.prepareStatement("""
+                            SELECT (SELECT COUNT(*) FROM %1$s.container_transactions WHERE event_id = ?),
+                                   (
+                                       SELECT GROUP_CONCAT(tx.item, ',')
+                                       FROM (
+                                           SELECT im.value || ':' || t.delta AS item
+                                           FROM %1$s.container_transactions t
+                                           JOIN materials im ON im.id = t.item_type_id
+                                           WHERE t.event_id = ?
+                                           ORDER BY t.created_at DESC, t.rowid DESC
+                                           LIMIT ?
+                                       ) tx
+                                   );
+                            """.formatted(schema));
+                }
+                PreparedStatement ps = target.summaryRebuild;
+                ps.setLong(1, eventId);
+                ps.setLong(2, eventId);
+                ps.setInt(3, SUMMARY_ITEMS);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    count = rs.getInt(1);
+                    recentItems = rs.getString(2);
+                }
+            } else {
+                if (target.summarySelect == null) {
+                    target.summarySelect = writeConnection.prepareStatement("""
+                            SELECT transaction_count, recent_items
+                            FROM %1$s.event_summaries
+                            WHERE event_id = ?;
+                            """.formatted(schema));
+                }
+                List<String> items = entry.getValue();
+                count = items.size();
+                target.summarySelect.setLong(1, eventId);
+                try (ResultSet rs = target.summarySelect.executeQuery()) {
+                    if (rs.next()) {
+                        count += rs.getInt(1);
+                        if (items.size() < SUMMARY_ITEMS) {
+                            items.addAll(Arrays.asList(rs.getString(2).split(",")));
+                        }
+                    }
+                }
+                recentItems = String.join(",", items.subList(0, Math.min(SUMMARY_ITEMS, items.size())));
+            }
+            if (recentItems == null) {
+                continue;
+            }
+            target.summaryUpsert.setLong(1, eventId);
+            target.summaryUpsert.setInt(2, count);
+            target.summaryUpsert.setString(3, recentItems);
+            target.summaryUpsert.addBatch();
+        }
+        target.summaryUpsert.executeBatch();
+        target.summaryUpsert.clearBatch();
+    }
+
+    /** Writes each group collected for {@code target} as one row, with its blocks packed. */
+    private void insertGroups(WriterPartition target, long head) throws SQLException {
+        if (target.groups == 0) {
+            return;
+        }
+        if (target.groupInsert == null) {
+            target.groupInsert = writeConnection.prepareStatement(
+                    PartitionSchema.GROUP_INSERT_SQL.formatted(target.partition.schema()));
+        }
+        PreparedStatement ps = target.groupInsert;
+        for (int g = 0; g < target.groups; g++) {
+            long position = head + target.groupRows[g];
+            BlockGroup group = ingest.group(position);
+            int[] typeIds = new int[group.size()];
+            int[] dataIds = new int[group.size()];
+            for (int i = 0; i < group.size(); i++) {
+                typeIds[i] = materials.idFor(writeConnection, group.type(i));
+                dataIds[i] = blockStates.idFor(writeConnection, blockDataString(group.blockState(i), group, i));
+            }
+            ps.setLong(1, ingest.id(position));
+            ps.setBytes(2, uuidBytes(ingest.playerUuid(position)));
+            ps.setInt(3, worlds.idFor(writeConnection, group.world()));
+            ps.setInt(4, ingest.action(position));
+            ps.setLong(5, ingest.createdAt(position));
+            if (ingest.cause(position) != 0) {
+                ps.setInt(6, ingest.cause(position));
+            } else {
+                ps.setNull(6, java.sql.Types.INTEGER);
+            }
+            ps.setInt(7, group.size());
+            ps.setInt(8, group.minX());
+            ps.setInt(9, group.minY());
+            ps.setInt(10, group.minZ());
+            ps.setInt(11, group.maxX());
+            ps.setInt(12, group.maxY());
+            ps.setInt(13, group.maxZ());
+            ps.setBytes(14, group.pack(typeIds, dataIds, groupDeflater));
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        ps.clearBatch();
+        target.groups = 0;
+    }
+
+    /** The stored form of a UUID: its 16 bytes, most significant first. */
+    static byte[] uuidBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    static UUID uuidFromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+
+    private void bindEvent(PreparedStatement ps, int offset, long position) throws SQLException {
+        ps.setLong(offset + 1, ingest.id(position));
+        ps.setBytes(offset + 2, uuidBytes(ingest.playerUuid(position)));
+        ps.setInt(offset + 3, worlds.idFor(writeConnection, ingest.world(position)));
+        ps.setLong(offset + 4, BlockPos.pack(ingest.x(position), ingest.y(position), ingest.z(position)));
+        ps.setInt(offset + 5, materials.idFor(writeConnection, ingest.type(position)));
+        ps.setInt(offset + 6, blockStates.idFor(writeConnection, blockDataString(position)));
+        ps.setString(offset + 7, ingest.rollbackSkipReason(position));
+        ps.setInt(offset + 8, ingest.action(position));
+        ps.setLong(offset + 9, ingest.createdAt(position));
+        if (ingest.cause(position) != 0) {
+            ps.setInt(offset + 10, ingest.cause(position));
+        } else {
+            ps.setNull(offset + 10, java.sql.Types.INTEGER);
+        }
+    }
+
+    private String blockDataString(long position) {
+        BlockData state = ingest.blockState(position);
+        if (state == null) {
+            return ingest.blockData(position);
+        }
+        return blockDataString(state);
+    }
+
+    private String blockDataString(BlockData state, BlockGroup group, int block) {
+        return state == null ? group.blockData(block) : blockDataString(state);
+    }
+
+    private String blockDataString(BlockData state) {
+        String data = blockDataStrings.get(state);
+        if (data == null) {
+            if (blockDataStrings.size() >= MAX_BLOCK_DATA_STRINGS) {
+                blockDataStrings.clear();
+            }
+            data = state.getAsString();
+            blockDataStrings.put(state, data);
+        }
+        return data;
+    }
+
+    private void bindTransaction(PreparedStatement ps, int offset, long position) throws SQLException {
+        ps.setLong(offset + 1, ingest.id(position));
+        ps.setLong(offset + 2, ingest.eventId(position));
+        ps.setBytes(offset + 3, uuidBytes(ingest.playerUuid(position)));
+        ps.setInt(offset + 4, worlds.idFor(writeConnection, ingest.world(position)));
+        ps.setInt(offset + 5, ingest.x(position));
+        ps.setInt(offset + 6, ingest.y(position));
+        ps.setInt(offset + 7, ingest.z(position));
+        ps.setInt(offset + 8, materials.idFor(writeConnection, ingest.type(position)));
+        ps.setInt(offset + 9, ingest.delta(position));
+        ps.setLong(offset + 10, ingest.createdAt(position));
+    }
+
+    private void scheduleBacklogFlush() {
+        if (closing) {
+            return;
+        }
+        if (journal != null && journal.isRunning() && journal.syncedPosition() <= ingest.head()) {
+            // Nothing more is synced yet; come back once the journal's next group commit has landed.
+            dbExecutor.schedule(() -> flushPendingActionsSafe(FlushMetrics.Trigger.BACKLOG),
+                    journal.syncIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            dbExecutor.execute(() -> flushPendingActionsSafe(FlushMetrics.Trigger.BACKLOG));
+        }
+    }
+
+    /**
+     * Runs a passive WAL checkpoint on the main database and every attached partition. Returns true when every
+     * committed frame reached the database files, which also makes those commits durable under
+     * synchronous=NORMAL.
+     */
+    private boolean checkpoint() throws SQLException {
+        boolean complete = checkpoint("main");
+        for (WriterPartition partition : writerPartitions.values()) {
+            complete &= checkpoint(partition.partition.schema());
+        }
+        return complete;
+    }
+
+    private boolean checkpoint(String schema) throws SQLException {
+        try (Statement checkpointStmt = writeConnection.createStatement();
+             ResultSet rs = checkpointStmt.executeQuery("PRAGMA " + schema + ".wal_checkpoint(PASSIVE);")) {
+            return rs.next() && rs.getInt(1) == 0 && rs.getInt(2) == rs.getInt(3);
+        }
+    }
+
+    private void refillFromSpill() {
+        if (!spill.isActive()) {
+            return;
+        }
+        try {
+            spill.drainInto(ingest, queueMemoryBudget);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Spill file cut off at its first unreadable record: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Empties the spill file once the records moved out of it are committed. A flush only writes records the
+     * journal has synced, so in the journaled tiers they are on disk twice until then.
+     */
+    private void releaseSpill() {
+        try {
+            spill.released(ingest.head());
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not empty the queue spill file: " + e.getMessage());
+        }
+    }
+
     private Connection borrowReadConnection() throws SQLException {
         if (!readPermits.tryAcquire()) {
             throw new SQLException("Database read capacity is temporarily exhausted.");
@@ -792,43 +2244,24 @@ public class Database {
         return c;
     }
 
-    private record PendingBlockAction(
-            String id,
-            String playerUuid,
-            String playerName,
-            String worldName,
-            int x,
-            int y,
-            int z,
-            String blockType,
-            String blockData,
-            String rollbackSkipReason,
-            BlockActionType action,
-            long createdAt,
-            BlockActionCause cause
-    ) {}
-
-    private record PendingContainerTransaction(
-            String id,
-            String eventId,
-            String playerUuid,
-            String playerName,
-            String worldName,
-            int x,
-            int y,
-            int z,
-            String itemType,
-            int delta,
-            long createdAt
-    ) {}
-
+    /**
+     * One page of a block's history, newest first. Pages are read by seeking past {@code after}, the end of an
+     * earlier page the caller kept, so paging through a busy block costs the same on every page; only the pages
+     * between {@code after} and the requested one are skipped. {@code knownTotal} is the entry count the caller
+     * cached from an earlier page, or -1 to count now. Counts are cached per partition, so a count only attaches
+     * the partitions that the page did not read and that changed since the block was last counted. Pages far from
+     * the cursor skip whole partitions by those counts. A page that comes back short of {@code knownTotal} counts
+     * again, so a total that purges made stale is corrected rather than kept.
+     */
     public BlockHistoryPage getActionsAtBlockPage(
             String worldName,
             int x,
             int y,
             int z,
             int requestedPage,
-            int pageSize
+            int pageSize,
+            HistoryCursor after,
+            int knownTotal
     ) throws SQLException {
         if (!isOpen()) {
             throw new SQLException("Database not available.");
@@ -836,89 +2269,437 @@ public class Database {
         if (requestedPage < 1 || pageSize < 1 || pageSize > 20) {
             throw new IllegalArgumentException("Invalid history page request.");
         }
+        if (shardPerWorld) {
+            Database shard = existingShard(worldName);
+            return shard == null
+                    ? new BlockHistoryPage(List.of(), 1, 1, 0, null)
+                    : shard.getActionsAtBlockPage(worldName, x, y, z, requestedPage, pageSize, after, knownTotal);
+        }
+
+        long pos = BlockPos.pack(x, y, z);
+
+        Connection c = null;
+        try {
+            c = borrowReadConnection();
+
+            List<Partitions.Partition> newestFirst = partitions.newestFirst();
+            // Counts taken or found during this request, for the total and for skipping partitions.
+            BlockCount[] counts = new BlockCount[newestFirst.size()];
+            int totalEntries = knownTotal;
+            if (totalEntries < 0 && requestedPage > 1) {
+                totalEntries = countActionsAt(c, newestFirst, counts, worldName, pos, x, y, z);
+            }
+            int page = totalEntries < 0 ? 1 : Math.min(requestedPage, totalPages(totalEntries, pageSize));
+            List<HistoryRow> rows = historyRowsAt(c, newestFirst, counts, worldName, x, y, z,
+                    after, page, pageSize, totalEntries < 0);
+
+            // A short page under the caller's total means entries were purged or merged away since it was taken.
+            if (totalEntries < 0 || knownTotal >= 0 && rows.size() < pageSize) {
+                totalEntries = countActionsAt(c, newestFirst, counts, worldName, pos, x, y, z);
+            }
+            int totalPages = totalPages(totalEntries, pageSize);
+            if (page > totalPages) {
+                page = totalPages;
+                rows = historyRowsAt(c, newestFirst, counts, worldName, x, y, z, after, page, pageSize, false);
+            }
+
+            List<BlockLogEntry> result = new ArrayList<>(rows.size());
+            for (HistoryRow row : rows) {
+                result.add(row.entry());
+            }
+            HistoryRow last = rows.isEmpty() ? null : rows.getLast();
+            HistoryCursor end = last == null ? null : new HistoryCursor(page, last.createdAt(), last.id());
+            return new BlockHistoryPage(List.copyOf(result), page, totalPages, totalEntries, end);
+        } finally {
+            returnReadConnection(c);
+        }
+    }
 
+    /**
+     * The rows of one page at a position, newest first. Partitions hold the events created in their range, so
+     * newest-first rows are partitions taken newest first. A partition that lies wholly past the cursor and holds no
+     * more entries than are left to skip is skipped by its count; in the partition where the page begins, the rest
+     * of the offset is skipped in SQL. Entries are built only for the rows returned.
+     */
+    private List<HistoryRow> historyRowsAt(Connection c, List<Partitions.Partition> newestFirst, BlockCount[] counts,
+                                           String worldName, int x, int y, int z, HistoryCursor after, int page,
+                                           int pageSize, boolean countAll) throws SQLException {
+        long pos = BlockPos.pack(x, y, z);
+        HistoryCursor from = after != null && after.page() < page ? after : null;
+        HistoryRow boundary = from == null ? NEWEST : new HistoryRow(from.createdAt(), from.id(), null);
+        int skip = (page - 1 - (from == null ? 0 : from.page())) * pageSize;
+
+        List<HistoryRow> rows = new ArrayList<>(pageSize);
+        for (int i = 0; i < newestFirst.size() && rows.size() < pageSize; i++) {
+            Partitions.Partition partition = newestFirst.get(i);
+            if (partition.start() > boundary.createdAt()) {
+                continue;
+            }
+            boolean whole = partition.end() <= boundary.createdAt();
+            if (counts[i] == null) {
+                counts[i] = cachedCount(partition, worldName, pos);
+            }
+            if (whole && counts[i] != null && counts[i].total() <= skip) {
+                skip -= counts[i].total();
+                continue;
+            }
+            if (!attachForRead(c, partition)) {
+                continue;
+            }
+            try {
+                if (counts[i] == null && (countAll || whole && skip > 0)) {
+                    counts[i] = countAt(c, partition, worldName, pos, x, y, z);
+                    if (whole && counts[i].total() <= skip) {
+                        skip -= counts[i].total();
+                        continue;
+                    }
+                }
+                int need = pageSize - rows.size();
+                List<GroupHit> hits = groupHitsAt(c, partition.schema(), worldName, x, y, z, boundary, skip + need);
+                int eventSkip = skip;
+                int hitSkip = 0;
+                // Unless all the skipped entries are known to be events, walk their keys to split the offset.
+                if (skip > 0 && (!whole || !hits.isEmpty())) {
+                    List<HistoryRow> keys = eventKeysAt(c, partition.schema(), worldName, pos, boundary, skip);
+                    eventSkip = 0;
+                    while (eventSkip + hitSkip < skip && (eventSkip < keys.size() || hitSkip < hits.size())) {
+                        if (hitSkip >= hits.size() || eventSkip < keys.size()
+                                && NEWEST_FIRST.compare(keys.get(eventSkip), hits.get(hitSkip).key()) <= 0) {
+                            eventSkip++;
+                        } else {
+                            hitSkip++;
+                        }
+                    }
+                    if (eventSkip + hitSkip < skip) {
+                        skip -= eventSkip + hitSkip;
+                        continue;
+                    }
+                }
+                skip = 0;
+                List<HistoryRow> events = eventsAt(c, partition.schema(), worldName, pos, boundary, eventSkip, need);
+                rows.addAll(mergeNewestFirst(c, events, hits.subList(hitSkip, hits.size()), need));
+            } finally {
+                detachQuietly(c, partition);
+            }
+        }
+        return rows;
+    }
+
+    /** Up to {@code limit} events at one position older than {@code before}, newest first, after {@code offset}. */
+    private static List<HistoryRow> eventsAt(Connection c, String schema, String worldName, long pos,
+                                             HistoryRow before, int offset, int limit) throws SQLException {
+        // Each arm walks its index newest first from the cursor, and the two are merged until the limit.
         String sql = """
-                SELECT e.player_name,
-                       e.block_type,
+                SELECT e.id AS id,
+                       p.name AS player_name,
+                       m.value AS block_type,
                        e.action,
-                       e.created_at,
+                       e.created_at AS created_at,
                        e.cause,
-                       (
-                           SELECT GROUP_CONCAT(tx.item_type || ':' || tx.delta, ',')
-                           FROM (
-                               SELECT t.item_type, t.delta
-                               FROM container_transactions t
-                               WHERE t.event_id = e.id
-                               ORDER BY t.created_at DESC, t.rowid DESC
-                               LIMIT 20
-                           ) tx
-                       ) AS transaction_summary,
-                       (
-                           SELECT COUNT(*)
-                           FROM container_transactions t
-                           WHERE t.event_id = e.id
-                       ) AS transaction_count
-                FROM events e
-                WHERE e.world = ?
-                  AND e.x = ?
-                  AND e.y = ?
-                  AND e.z = ?
-                ORDER BY e.created_at DESC, e.rowid DESC
+                       s.recent_items AS transaction_summary,
+                       COALESCE(s.transaction_count, 0) AS transaction_count
+                FROM %1$s.events e
+                JOIN materials m ON m.id = e.block_type_id
+                JOIN players p ON p.uuid = e.player_uuid
+                LEFT JOIN %1$s.event_summaries s ON s.event_id = e.id
+                WHERE e.world_id = (SELECT id FROM worlds WHERE value = ?)
+                  AND e.pos = ?
+                  AND (e.created_at, e.id) < (?, ?)
+                UNION ALL
+                SELECT e.id AS id,
+                       p.name AS player_name,
+                       m.value AS block_type,
+                       e.action,
+                       e.created_at AS created_at,
+                       e.cause,
+                       s.recent_items AS transaction_summary,
+                       COALESCE(s.transaction_count, 0) AS transaction_count
+                FROM %1$s.events_recent e
+                JOIN materials m ON m.id = e.block_type_id
+                JOIN players p ON p.uuid = e.player_uuid
+                LEFT JOIN %1$s.event_summaries s ON s.event_id = e.id
+                WHERE e.world_id = (SELECT id FROM worlds WHERE value = ?)
+                  AND e.pos = ?
+                  AND (e.created_at, e.id) < (?, ?)
+                ORDER BY created_at DESC, id DESC
                 LIMIT ? OFFSET ?;
-                """;
+                """.formatted(schema);
+
+        List<HistoryRow> events = new ArrayList<>(limit);
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            bindPositionArms(ps, worldName, pos, before);
+            ps.setInt(9, limit);
+            ps.setInt(10, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int causeCode = rs.getInt("cause");
+                    boolean causeWasNull = rs.wasNull();
+                    long createdAt = rs.getLong("created_at");
+                    events.add(new HistoryRow(createdAt, rs.getLong("id"), new BlockLogEntry(
+                            rs.getString("player_name"),
+                            rs.getString("block_type"),
+                            BlockActionType.fromCode(rs.getInt("action")),
+                            createdAt,
+                            causeWasNull ? null : BlockActionCause.fromCode(causeCode),
+                            rs.getString("transaction_summary"),
+                            rs.getInt("transaction_count")
+                    )));
+                }
+            }
+        }
+        return events;
+    }
+
+    /** The keys of up to {@code limit} events at one position older than {@code before}, newest first. */
+    private static List<HistoryRow> eventKeysAt(Connection c, String schema, String worldName, long pos,
+                                                HistoryRow before, int limit) throws SQLException {
+        String sql = """
+                SELECT created_at, id
+                FROM %1$s.events
+                WHERE world_id = (SELECT id FROM worlds WHERE value = ?)
+                  AND pos = ?
+                  AND (created_at, id) < (?, ?)
+                UNION ALL
+                SELECT created_at, id
+                FROM %1$s.events_recent
+                WHERE world_id = (SELECT id FROM worlds WHERE value = ?)
+                  AND pos = ?
+                  AND (created_at, id) < (?, ?)
+                ORDER BY created_at DESC, id DESC
+                LIMIT ?;
+                """.formatted(schema);
+
+        List<HistoryRow> keys = new ArrayList<>(limit);
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            bindPositionArms(ps, worldName, pos, before);
+            ps.setInt(9, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    keys.add(new HistoryRow(rs.getLong(1), rs.getLong(2), null));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void bindPositionArms(PreparedStatement ps, String worldName, long pos, HistoryRow before)
+            throws SQLException {
+        for (int arm = 0; arm < 2; arm++) {
+            ps.setString(arm * 4 + 1, worldName);
+            ps.setLong(arm * 4 + 2, pos);
+            ps.setLong(arm * 4 + 3, before.createdAt());
+            ps.setLong(arm * 4 + 4, before.id());
+        }
+    }
+
+    private static int totalPages(int totalEntries, int pageSize) {
+        return Math.max(1, (totalEntries + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * Entries at one position across {@code partitions}, the stored groups' blocks included. Takes the counts in
+     * {@code counts} or cached from an earlier request, and attaches only the partitions it has neither for.
+     */
+    private int countActionsAt(Connection c, List<Partitions.Partition> partitions, BlockCount[] counts,
+                               String worldName, long pos, int x, int y, int z) throws SQLException {
+        int total = 0;
+        for (int i = 0; i < partitions.size(); i++) {
+            Partitions.Partition partition = partitions.get(i);
+            if (counts[i] == null) {
+                counts[i] = cachedCount(partition, worldName, pos);
+            }
+            if (counts[i] == null) {
+                if (!attachForRead(c, partition)) {
+                    continue;
+                }
+                try {
+                    counts[i] = countAt(c, partition, worldName, pos, x, y, z);
+                } finally {
+                    detachQuietly(c, partition);
+                }
+            }
+            total += counts[i].total();
+        }
+        return total;
+    }
+
+    /** The count cached for a position in a partition, or null if there is none or the partition changed since. */
+    private BlockCount cachedCount(Partitions.Partition partition, String worldName, long pos) {
+        BlockCount count = blockCounts.get(new BlockCountKey(partition.schema(), worldName, pos));
+        return count != null && count.writes() == partitionWrites.getOrDefault(partition.schema(), 0L)
+                ? count
+                : null;
+    }
+
+    /** Counts the entries at one position in a partition attached to {@code c}, and caches the count. */
+    private BlockCount countAt(Connection c, Partitions.Partition partition, String worldName, long pos,
+                               int x, int y, int z) throws SQLException {
         String countSql = """
-                SELECT COUNT(*)
-                FROM events
-                WHERE world = ? AND x = ? AND y = ? AND z = ?;
+                SELECT (
+                    SELECT COUNT(*)
+                    FROM %1$s.events
+                    WHERE world_id = (SELECT id FROM worlds WHERE value = ?)
+                      AND pos = ?
+                ) + (
+                    SELECT COUNT(*)
+                    FROM %1$s.events_recent
+                    WHERE world_id = (SELECT id FROM worlds WHERE value = ?)
+                      AND pos = ?
+                );
                 """;
 
-        List<BlockLogEntry> result = new ArrayList<>();
+        // Read first: a commit landing meanwhile leaves the count marked stale rather than a stale count current.
+        long writes = partitionWrites.getOrDefault(partition.schema(), 0L);
+        int events;
+        try (PreparedStatement ps = c.prepareStatement(countSql.formatted(partition.schema()))) {
+            ps.setString(1, worldName);
+            ps.setLong(2, pos);
+            ps.setString(3, worldName);
+            ps.setLong(4, pos);
+            try (ResultSet rs = ps.executeQuery()) {
+                events = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        BlockCount count = new BlockCount(writes, events,
+                groupHitsAt(c, partition.schema(), worldName, x, y, z, NEWEST, Integer.MAX_VALUE).size());
+        if (blockCounts.size() >= MAX_BLOCK_COUNTS) {
+            blockCounts.clear();
+        }
+        blockCounts.put(new BlockCountKey(partition.schema(), worldName, pos), count);
+        return count;
+    }
 
-        Connection c = null;
-        try {
-            c = borrowReadConnection();
-            int totalEntries;
-            try (PreparedStatement countPs = c.prepareStatement(countSql)) {
-                countPs.setString(1, worldName);
-                countPs.setInt(2, x);
-                countPs.setInt(3, y);
-                countPs.setInt(4, z);
-                try (ResultSet rs = countPs.executeQuery()) {
-                    totalEntries = rs.next() ? rs.getInt(1) : 0;
+    /** Marks a partition's entries changed, so the counts cached for it are taken again. */
+    private void entriesChanged(Partitions.Partition partition) {
+        partitionWrites.merge(partition.schema(), 1L, Long::sum);
+    }
+
+    private record BlockCountKey(String schema, String worldName, long pos) {}
+
+    /** Entries at one position in one partition, as of the partition's {@code writes}-th change. */
+    private record BlockCount(long writes, int events, int groupHits) {
+        int total() {
+            return events + groupHits;
+        }
+    }
+
+    /** A history entry with the keys it is sorted by. */
+    private record HistoryRow(long createdAt, long id, BlockLogEntry entry) {}
+
+    /** Sorts before every stored row. */
+    private static final HistoryRow NEWEST = new HistoryRow(Long.MAX_VALUE, Long.MAX_VALUE, null);
+
+    private static final Comparator<HistoryRow> NEWEST_FIRST =
+            Comparator.comparingLong(HistoryRow::createdAt).thenComparingLong(HistoryRow::id).reversed();
+
+    /** A stored group's block at the inspected position, with its material not looked up yet. */
+    private record GroupHit(long createdAt, long id, String playerName, int typeId, BlockActionType action,
+                            BlockActionCause cause) {
+        HistoryRow key() {
+            return new HistoryRow(createdAt, id, null);
+        }
+
+        HistoryRow row(Connection c, Map<Integer, String> materialNames) throws SQLException {
+            return new HistoryRow(createdAt, id, new BlockLogEntry(playerName,
+                    dictionaryValue(c, "materials", typeId, materialNames), action, createdAt, cause, null, 0));
+        }
+    }
+
+    /** Up to {@code want} rows of newest-first events and group hits merged; only the hits taken become entries. */
+    private static List<HistoryRow> mergeNewestFirst(Connection c, List<HistoryRow> events, List<GroupHit> hits,
+                                                     int want) throws SQLException {
+        List<HistoryRow> merged = new ArrayList<>(Math.min(want, events.size() + hits.size()));
+        Map<Integer, String> materialNames = new HashMap<>();
+        int i = 0;
+        int j = 0;
+        while (merged.size() < want && (i < events.size() || j < hits.size())) {
+            if (j >= hits.size() || i < events.size() && NEWEST_FIRST.compare(events.get(i), hits.get(j).key()) <= 0) {
+                merged.add(events.get(i++));
+            } else {
+                merged.add(hits.get(j++).row(c, materialNames));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Up to {@code limit} blocks of stored groups in {@code schema} at one position that are older than
+     * {@code before}, newest first. Groups are unpacked newest first until the limit is reached.
+     */
+    private static List<GroupHit> groupHitsAt(Connection c, String schema, String worldName, int x, int y, int z,
+                                              HistoryRow before, int limit) throws SQLException {
+        String sql = """
+                SELECT g.id, p.name AS player_name, g.action, g.created_at, g.cause,
+                       g.block_count, g.min_x, g.min_y, g.min_z, g.blocks
+                FROM %1$s.event_groups g
+                JOIN players p ON p.uuid = g.player_uuid
+                WHERE g.world_id = (SELECT id FROM worlds WHERE value = ?)
+                  AND g.min_x BETWEEN ? AND ?
+                  AND g.max_x >= ?
+                  AND g.min_z <= ? AND g.max_z >= ?
+                  AND g.min_y <= ? AND g.max_y >= ?
+                  AND g.created_at <= ?
+                ORDER BY g.created_at DESC, g.id DESC;
+                """.formatted(schema);
+
+        List<GroupHit> hits = new ArrayList<>();
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, worldName);
+            ps.setInt(2, x - BlockGroup.MAX_SPAN);
+            ps.setInt(3, x);
+            ps.setInt(4, x);
+            ps.setInt(5, z);
+            ps.setInt(6, z);
+            ps.setInt(7, y);
+            ps.setInt(8, y);
+            ps.setLong(9, before.createdAt());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (hits.size() < limit && rs.next()) {
+                    int causeCode = rs.getInt("cause");
+                    boolean causeWasNull = rs.wasNull();
+                    long createdAt = rs.getLong("created_at");
+                    long id = rs.getLong("id");
+                    List<BlockGroup.StoredBlock> blocks = unpackGroup(rs);
+                    // Block i has id + i, so a group's blocks are newest first from its last.
+                    for (int b = blocks.size() - 1; b >= 0; b--) {
+                        BlockGroup.StoredBlock block = blocks.get(b);
+                        if (block.x() != x || block.y() != y || block.z() != z
+                                || createdAt == before.createdAt() && id + block.index() >= before.id()) {
+                            continue;
+                        }
+                        hits.add(new GroupHit(createdAt, id + block.index(), rs.getString("player_name"),
+                                block.typeId(), BlockActionType.fromCode(rs.getInt("action")),
+                                causeWasNull ? null : BlockActionCause.fromCode(causeCode)));
+                    }
                 }
             }
-            int totalPages = Math.max(1, (totalEntries + pageSize - 1) / pageSize);
-            int page = Math.min(requestedPage, totalPages);
+        }
+        return hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
 
-            try (PreparedStatement ps = c.prepareStatement(sql)) {
-                ps.setString(1, worldName);
-                ps.setInt(2, x);
-                ps.setInt(3, y);
-                ps.setInt(4, z);
-                ps.setInt(5, pageSize);
-                ps.setInt(6, (page - 1) * pageSize);
+    private static List<BlockGroup.StoredBlock> unpackGroup(ResultSet rs) throws SQLException {
+        try {
+            return BlockGroup.unpack(rs.getBytes("blocks"), rs.getInt("block_count"),
+                    rs.getInt("min_x"), rs.getInt("min_y"), rs.getInt("min_z"));
+        } catch (IOException e) {
+            throw new SQLException("Corrupt block group " + rs.getLong("id") + ".", e);
+        }
+    }
 
+    /** A value of one of the dictionary tables in the main database, cached for the caller. */
+    private static String dictionaryValue(Connection c, String table, int id, Map<Integer, String> cache)
+            throws SQLException {
+        String value = cache.get(id);
+        if (value == null) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT value FROM " + table + " WHERE id = ?;")) {
+                ps.setInt(1, id);
                 try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        int causeCode = rs.getInt("cause");
-                        boolean causeWasNull = rs.wasNull();
-                        result.add(new BlockLogEntry(
-                                rs.getString("player_name"),
-                                rs.getString("block_type"),
-                                BlockActionType.fromCode(rs.getInt("action")),
-                                rs.getLong("created_at"),
-                                causeWasNull ? null : BlockActionCause.fromCode(causeCode),
-                                rs.getString("transaction_summary"),
-                                rs.getInt("transaction_count")
-                        ));
-                    }
+                    value = rs.next() ? rs.getString(1) : null;
                 }
             }
-
-            return new BlockHistoryPage(List.copyOf(result), page, totalPages, totalEntries);
-        } finally {
-            returnReadConnection(c);
+            cache.put(id, value);
         }
+        return value;
     }
 
     public List<RollbackEntry> getActionsForRollback(
@@ -939,45 +2720,132 @@ public class Database {
         if (limit < 1) {
             throw new IllegalArgumentException("Rollback limit must be positive.");
         }
-
-        String sql = """
-                SELECT id,
-                       x,
-                       y,
-                       z,
-                       block_type,
-                       block_data,
-                       rollback_skip_reason,
-                       player_uuid,
-                       action,
-                       created_at
-                FROM events
-                WHERE world = ?
-                  AND player_uuid = (
-                      SELECT player_uuid
-                      FROM events
-                      WHERE player_name = ? COLLATE NOCASE
-                      ORDER BY created_at DESC, rowid DESC
-                      LIMIT 1
-                  )
-                  AND created_at >= ?
-                  AND x BETWEEN ? AND ?
-                  AND y BETWEEN ? AND ?
-                  AND z BETWEEN ? AND ?
-                  AND action IN (?, ?)
-                ORDER BY created_at DESC, rowid DESC
-                LIMIT ?;
-                """;
+        if (shardPerWorld) {
+            Database shard = existingShard(worldName);
+            return shard == null
+                    ? List.of()
+                    : shard.getActionsForRollback(playerName, worldName, fromTime, minX, maxX, minY, maxY, minZ, maxZ,
+                            limit);
+        }
 
         List<RollbackEntry> result = new ArrayList<>();
 
+        // Whoever went by the name most recently is the player whose actions are rolled back.
+        UUID targetUuid = players.uuidForName(playerName);
+        if (targetUuid == null) {
+            return result;
+        }
+
         Connection c = null;
         try {
             c = borrowReadConnection();
-            PreparedStatement ps = c.prepareStatement(sql);
 
+            // Only partitions that overlap the time range are read, newest first, until the limit is reached.
+            for (Partitions.Partition partition : partitions.overlapping(fromTime)) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                if (!attachForRead(c, partition)) {
+                    continue;
+                }
+                try (PreparedStatement ps = c.prepareStatement(PartitionSchema.rollbackEventsSql(partition.schema()))) {
+                    int param = 1;
+                    ps.setBytes(param++, uuidBytes(targetUuid));
+                    ps.setLong(param++, fromTime);
+                    ps.setString(param++, worldName);
+                    ps.setInt(param++, minX);
+                    ps.setInt(param++, maxX);
+                    ps.setInt(param++, minY);
+                    ps.setInt(param++, maxY);
+                    ps.setInt(param++, minZ);
+                    ps.setInt(param++, maxZ);
+                    ps.setString(param++, worldName);
+                    ps.setBytes(param++, uuidBytes(targetUuid));
+                    ps.setLong(param++, fromTime);
+                    ps.setInt(param++, minX);
+                    ps.setInt(param++, maxX);
+                    ps.setInt(param++, minY);
+                    ps.setInt(param++, maxY);
+                    ps.setInt(param++, minZ);
+                    ps.setInt(param++, maxZ);
+
+                    // only placed/broken
+                    ps.setInt(param++, BlockActionType.PLACED.getCode());
+                    ps.setInt(param++, BlockActionType.BROKEN.getCode());
+                    ps.setInt(param, limit - result.size());
+
+                    List<RollbackEntry> partitionEntries = new ArrayList<>();
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            long id = rs.getLong("id");
+                            long pos = rs.getLong("pos");
+                            int x = BlockPos.x(pos);
+                            int y = BlockPos.y(pos);
+                            int z = BlockPos.z(pos);
+                            String blockType = rs.getString("block_type");
+                            String blockData = rs.getString("block_data");
+                            String rollbackSkipReason = rs.getString("rollback_skip_reason");
+                            UUID playerUuid = uuidFromBytes(rs.getBytes("player_uuid"));
+                            int actionCode = rs.getInt("action");
+                            long createdAt = rs.getLong("created_at");
+
+                            BlockActionType action = BlockActionType.fromCode(actionCode);
+
+                            partitionEntries.add(new RollbackEntry(
+                                    id,
+                                    x,
+                                    y,
+                                    z,
+                                    blockType,
+                                    blockData,
+                                    rollbackSkipReason,
+                                    playerUuid,
+                                    action,
+                                    createdAt
+                            ));
+                        }
+                    }
+
+                    int remaining = limit - result.size();
+                    partitionEntries.addAll(groupBlocksForRollback(c,
+                            PartitionSchema.rollbackGroupsSql(partition.schema()), worldName, targetUuid, fromTime, minX, maxX, minY, maxY, minZ, maxZ, remaining));
+                    partitionEntries.sort(ROLLBACK_NEWEST_FIRST);
+                    result.addAll(partitionEntries.subList(0, Math.min(remaining, partitionEntries.size())));
+                } finally {
+                    detachQuietly(c, partition);
+                }
+            }
+        } finally {
+            returnReadConnection(c);
+        }
+
+        return result;
+    }
+
+    private static final Comparator<RollbackEntry> ROLLBACK_NEWEST_FIRST =
+            Comparator.comparingLong(RollbackEntry::createdAt).thenComparingLong(RollbackEntry::id).reversed();
+
+    /** Up to {@code limit} placed or broken blocks of stored groups inside the box, newest first. */
+    private static List<RollbackEntry> groupBlocksForRollback(
+            Connection c,
+            String sql,
+            String worldName,
+            UUID playerUuid,
+            long fromTime,
+            int minX,
+            int maxX,
+            int minY,
+            int maxY,
+            int minZ,
+            int maxZ,
+            int limit
+    ) throws SQLException {
+        List<RollbackEntry> entries = new ArrayList<>();
+        Map<Integer, String> materialNames = new HashMap<>();
+        Map<Integer, String> blockData = new HashMap<>();
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setString(1, worldName);
-            ps.setString(2, playerName);
+            ps.setBytes(2, uuidBytes(playerUuid));
             ps.setLong(3, fromTime);
             ps.setInt(4, minX);
             ps.setInt(5, maxX);
@@ -985,63 +2853,65 @@ public class Database {
             ps.setInt(7, maxY);
             ps.setInt(8, minZ);
             ps.setInt(9, maxZ);
-
-            // only placed/broken
             ps.setInt(10, BlockActionType.PLACED.getCode());
             ps.setInt(11, BlockActionType.BROKEN.getCode());
-            ps.setInt(12, limit);
 
             try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    String id = rs.getString("id");
-                    int x = rs.getInt("x");
-                    int y = rs.getInt("y");
-                    int z = rs.getInt("z");
-                    String blockType = rs.getString("block_type");
-                    String blockData = rs.getString("block_data");
-                    String rollbackSkipReason = rs.getString("rollback_skip_reason");
-                    String playerUuid = rs.getString("player_uuid");
-                    int actionCode = rs.getInt("action");
+                while (rs.next() && entries.size() < limit) {
+                    long id = rs.getLong("id");
+                    BlockActionType action = BlockActionType.fromCode(rs.getInt("action"));
                     long createdAt = rs.getLong("created_at");
-
-                    BlockActionType action = BlockActionType.fromCode(actionCode);
-
-                    result.add(new RollbackEntry(
-                            id,
-                            x,
-                            y,
-                            z,
-                            blockType,
-                            blockData,
-                            rollbackSkipReason,
-                            playerUuid,
-                            action,
-                            createdAt
-                    ));
+                    List<BlockGroup.StoredBlock> blocks = unpackGroup(rs);
+                    // Later blocks of a group carry higher ids, so they come first.
+                    for (int i = blocks.size() - 1; i >= 0 && entries.size() < limit; i--) {
+                        BlockGroup.StoredBlock block = blocks.get(i);
+                        if (block.x() < minX || block.x() > maxX || block.y() < minY || block.y() > maxY
+                                || block.z() < minZ || block.z() > maxZ) {
+                            continue;
+                        }
+                        entries.add(new RollbackEntry(
+                                id + block.index(),
+                                block.x(),
+                                block.y(),
+                                block.z(),
+                                dictionaryValue(c, "materials", block.typeId(), materialNames),
+                                dictionaryValue(c, "block_states", block.dataId(), blockData),
+                                block.rollbackSkipReason(),
+                                playerUuid,
+                                action,
+                                createdAt
+                        ));
+                    }
                 }
-            } finally {
-                ps.close();
             }
-        } finally {
-            returnReadConnection(c);
         }
-
-        return result;
+        return entries;
     }
 
     public record RollbackEntry(
-            String id,
+            long id,
             int x,
             int y,
             int z,
             String blockType,
             String blockData,
             String rollbackSkipReason,
-            String playerUuid,
+            UUID playerUuid,
             BlockActionType action,
             long createdAt
     ) {}
 
+    /** One block of a bulk enqueue; see {@link #enqueueBlockActions}. */
+    public record BlockChange(
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            BlockData blockData,
+            String rollbackSkipReason
+    ) {}
+
     public record RollbackAuditStart(
             String id,
             String executorUuid,
@@ -1076,10 +2946,15 @@ public class Database {
             int transactionCount
     ) {}
 
+    /** {@code end} is the cursor after the last entry, or null when the page is empty. */
     public record BlockHistoryPage(
             List<BlockLogEntry> entries,
             int page,
             int totalPages,
-            int totalEntries
+            int totalEntries,
+            HistoryCursor end
     ) {}
+
+    /** The sort key of the last entry of a history page, to read the pages after it from. */
+    public record HistoryCursor(int page, long createdAt, long id) {}
 }
@@ -0,0 +1,36 @@
+package org.markski.blocklog;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out monotonic 64-bit event ids: the event time in milliseconds in the high bits and a sequence in the
+ * low bits. Ids sort in creation order, so inserts append to the end of the primary key B-tree.
+ */
+final class EventIdGenerator {
+    private static final int SEQUENCE_BITS = 16;
+
+    private final AtomicLong last = new AtomicLong();
+
+    long next(long createdAt) {
+        long candidate = createdAt << SEQUENCE_BITS;
+        // Lock-free; a burst of more than 65536 ids in one millisecond simply borrows from the next one.
+        return last.accumulateAndGet(candidate, (previous, c) -> Math.max(previous + 1, c));
+    }
+
+    /** Hands out {@code count} consecutive ids in one step and returns the first. */
+    long nextRange(long createdAt, int count) {
+        long candidate = createdAt << SEQUENCE_BITS;
+        long end = last.accumulateAndGet(candidate, (previous, c) -> Math.max(previous + count, c + count - 1));
+        return end - count + 1;
+    }
+
+    /** The lowest id that can be generated at {@code millis}. */
+    static long firstIdAt(long millis) {
+        return millis << SEQUENCE_BITS;
+    }
+
+    /** Makes sure ids handed out from now on sort after {@code id}, e.g. the highest id already stored. */
+    void advancePast(long id) {
+        last.accumulateAndGet(id, Math::max);
+    }
+}
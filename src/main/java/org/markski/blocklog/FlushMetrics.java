@@ -0,0 +1,55 @@
+package org.markski.blocklog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Receives the flush scheduler's decisions and the retention purge's progress, for tuning the depth, latency
+ * and purge budget targets. Called on the database thread, so implementations must return quickly.
+ */
+public interface FlushMetrics {
+    FlushMetrics NONE = new FlushMetrics() {};
+
+    enum Trigger {
+        /** The flush timer fired. */
+        SCHEDULED,
+        /** The queue crossed the early-flush watermark. */
+        WATERMARK,
+        /** Records were still queued after the previous flush. */
+        BACKLOG,
+        /** Something needs recent records on disk, such as an inspection or a rollback. */
+        REQUESTED,
+        SHUTDOWN,
+        /** Records left on disk by a previous run are written during startup. */
+        RECOVERY
+    }
+
+    default void flushCompleted(Trigger trigger, int rows, long commitNanos, int queueDepth, int nextBatchSize) {}
+
+    default void flushScheduled(long delayMillis, boolean idle) {}
+
+    /** After each purge slice: rows removed since the purge started and how long it has been running. */
+    default void purgeProgress(long rows, long elapsedNanos, boolean finished) {}
+
+    static FlushMetrics logging(Logger logger) {
+        return new FlushMetrics() {
+            @Override
+            public void flushCompleted(Trigger trigger, int rows, long commitNanos, int queueDepth, int nextBatchSize) {
+                logger.info("Flush (" + trigger + "): " + rows + " rows in "
+                        + TimeUnit.NANOSECONDS.toMillis(commitNanos) + " ms, " + queueDepth
+                        + " still queued, next batch size " + nextBatchSize + ".");
+            }
+
+            @Override
+            public void flushScheduled(long delayMillis, boolean idle) {
+                logger.info("Next flush in " + delayMillis + " ms" + (idle ? " (idle)." : "."));
+            }
+
+            @Override
+            public void purgeProgress(long rows, long elapsedNanos, boolean finished) {
+                logger.info("Purge slice: " + rows + " rows removed in "
+                        + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms" + (finished ? ", finished." : "."));
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package org.markski.blocklog;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the writer flushes and how many records go into one transaction. Holds no threads of its own;
+ * the database thread asks it for the next delay and batch size and tells it how long each commit took.
+ */
+final class FlushScheduler {
+    private final long baseDelayMillis;
+    private final long idleDelayMillis;
+    private final int earlyFlushDepth;
+    private final long targetCommitNanos;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+
+    // Database thread only.
+    private long delayMillis;
+    private int batchSize;
+
+    FlushScheduler(
+            long baseDelayMillis,
+            long idleDelayMillis,
+            int earlyFlushDepth,
+            long targetCommitMillis,
+            int minBatchSize,
+            int maxBatchSize
+    ) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.idleDelayMillis = Math.max(baseDelayMillis, idleDelayMillis);
+        this.earlyFlushDepth = earlyFlushDepth;
+        this.targetCommitNanos = TimeUnit.MILLISECONDS.toNanos(targetCommitMillis);
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = Math.max(minBatchSize, maxBatchSize);
+        this.delayMillis = baseDelayMillis;
+        this.batchSize = this.minBatchSize;
+    }
+
+    long baseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /** Queue depth at which producers ask for a flush before the timer fires. */
+    int earlyFlushDepth() {
+        return earlyFlushDepth;
+    }
+
+    int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Moves the batch size toward the number of rows that should commit in the target latency, based on the
+     * per-row cost of the commit that just finished.
+     */
+    void recordCommit(int rows, long commitNanos) {
+        if (rows <= 0) {
+            return;
+        }
+        double nanosPerRow = Math.max(1.0, (double) commitNanos / rows);
+        long desired = (long) (targetCommitNanos / nanosPerRow);
+        desired = Math.max(minBatchSize, Math.min(maxBatchSize, desired));
+        batchSize = (int) ((batchSize + desired) / 2);
+    }
+
+    /** Delay until the next timed flush. Doubles while the timer keeps finding nothing to write. */
+    long nextDelayMillis(boolean hadWork) {
+        delayMillis = hadWork ? baseDelayMillis : Math.min(idleDelayMillis, delayMillis * 2);
+        return delayMillis;
+    }
+
+    boolean isIdle() {
+        return delayMillis > baseDelayMillis;
+    }
+}
@@ -0,0 +1,242 @@
+package org.markski.blocklog;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Crash-durable copy of every record that enters the ingest ring. A dedicated thread trails the producers,
+ * appends published records to the current segment file and forces it to disk once per sync interval, so a
+ * single fsync covers everything queued in that window. The database thread only writes records the journal
+ * has already synced, and deletes whole segments once SQLite holds their rows durably. Segments left behind
+ * by a crash are replayed by the next start.
+ */
+final class IngestJournal {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+    private static final int COPY_BATCH = 4096;
+
+    private final File directory;
+    private final IngestRing ring;
+    private final SpillFile spill;
+    private final long syncIntervalNanos;
+    private final long segmentBytes;
+    private final Logger logger;
+
+    // Ring positions below copied are in the current segment; below synced they are also on disk.
+    private volatile long copied;
+    private volatile long synced;
+    private volatile boolean running;
+    private volatile boolean syncRequested;
+    private Thread thread;
+
+    // Journal thread only.
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private File current;
+    private long currentBytes;
+    private long nextSegment;
+    private final RecordCodec.FrameBuffer record = new RecordCodec.FrameBuffer(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    private record Segment(File file, long endPosition) {}
+
+    // Segments that are synced and closed, oldest first.
+    private final Deque<Segment> closedSegments = new ArrayDeque<>();
+
+    IngestJournal(File directory, IngestRing ring, SpillFile spill, long syncIntervalMillis, long segmentBytes,
+                  Logger logger) {
+        this.directory = directory;
+        this.ring = ring;
+        this.spill = spill;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.segmentBytes = segmentBytes;
+        this.logger = logger;
+    }
+
+    /** Segment files on disk, oldest first. Before {@link #start} these are the ones left by the last run. */
+    List<File> segments() {
+        File[] files = directory.listFiles((dir, name) ->
+                name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return List.of();
+        }
+        Arrays.sort(files);
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    long syncIntervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(syncIntervalNanos);
+    }
+
+    /** Ring positions below this are synced to the journal and may be written to SQLite. */
+    long syncedPosition() {
+        return synced;
+    }
+
+    /** Starts journaling at {@code position}, which must be the ring's first unreleased position. */
+    void start(long position) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal folder: " + directory.getAbsolutePath());
+        }
+        for (File leftover : segments()) {
+            nextSegment = Math.max(nextSegment, segmentNumber(leftover) + 1);
+        }
+        copied = position;
+        synced = position;
+        openSegment();
+
+        running = true;
+        thread = new Thread(this::run, "BlockLog-Journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks the journal thread to sync now instead of at the end of its interval, and waits up to
+     * {@code timeoutMillis} for {@code position} to be synced.
+     */
+    void awaitSynced(long position, long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (running && synced < position && System.nanoTime() < deadline) {
+            syncRequested = true;
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+        }
+    }
+
+    /** Deletes closed segments whose records all sit below {@code releasedPosition} and are durable in SQLite. */
+    void trim(long releasedPosition) {
+        List<File> deletable = new ArrayList<>();
+        synchronized (closedSegments) {
+            while (!closedSegments.isEmpty() && closedSegments.peekFirst().endPosition() <= releasedPosition) {
+                deletable.add(closedSegments.pollFirst().file());
+            }
+        }
+        delete(deletable);
+    }
+
+    /** Copies and syncs whatever is still published, then stops the journal thread. */
+    void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /** Removes every segment, once all journaled records are durable in SQLite. Call after {@link #stop}. */
+    void discard() {
+        synchronized (closedSegments) {
+            closedSegments.clear();
+        }
+        delete(segments());
+    }
+
+    private void delete(List<File> files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                logger.warning("Could not delete journal segment " + file.getName() + ".");
+            }
+        }
+    }
+
+    private void run() {
+        long lastSync = System.nanoTime();
+        long pollNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), syncIntervalNanos / 4);
+        try {
+            while (true) {
+                boolean stopping = !running;
+                int count = ring.readableFrom(copied, COPY_BATCH);
+                long position = copied;
+                for (int i = 0; i < count; i++) {
+                    record.reset();
+                    RecordCodec.writeSlot(recordOut, ring, position + i);
+                    record.writeFrame(out);
+                    currentBytes += record.frameBytes();
+                }
+                copied = position + count;
+
+                long now = System.nanoTime();
+                boolean due = now - lastSync >= syncIntervalNanos || syncRequested || stopping;
+                if (due && (synced < copied || spill.isActive())) {
+                    syncRequested = false;
+                    sync();
+                    lastSync = now;
+                }
+                if (count == 0) {
+                    if (stopping) {
+                        break;
+                    }
+                    LockSupport.parkNanos(pollNanos);
+                }
+            }
+        } catch (IOException e) {
+            // The database thread stops waiting for the journal; records are only kept in memory from here on.
+            logger.severe("Ingest journal failed, continuing without it: " + e.getMessage());
+        } finally {
+            running = false;
+            closeQuietly(out);
+        }
+    }
+
+    private void sync() throws IOException {
+        out.flush();
+        fileOut.getChannel().force(false);
+        // Spilled records bypass the ring, so they are made durable here as well.
+        if (spill.isActive()) {
+            spill.sync();
+        }
+        synced = copied;
+
+        if (currentBytes >= segmentBytes) {
+            closeQuietly(out);
+            synchronized (closedSegments) {
+                closedSegments.addLast(new Segment(current, copied));
+            }
+            openSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        current = new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        fileOut = new FileOutputStream(current, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+        currentBytes = 0;
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable ac) {
+        if (ac != null) {
+            try { ac.close(); } catch (Exception ignored) {}
+        }
+    }
+}
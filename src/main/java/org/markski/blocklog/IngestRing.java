@@ -0,0 +1,404 @@
+package org.markski.blocklog;
+
+import org.bukkit.block.data.BlockData;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer, single-consumer queue of pending records, stored column by column in arrays that
+ * are allocated once. Producers claim positions with a single CAS, fill the slots and publish them; the
+ * database thread reads published slots in place and releases them only after their transaction commits, so
+ * a failed flush simply leaves its records queued. The heap held by queued strings is tracked as an estimate so
+ * the queue can be budgeted by memory rather than by slot count alone.
+ */
+final class IngestRing {
+    static final byte EVENT = 1;
+    static final byte TRANSACTION = 2;
+    /** The blocks of one bulk action, in a single slot. */
+    static final byte GROUP = 3;
+
+    // A block data wrapper: object header and a reference to the shared state.
+    private static final long BLOCK_STATE_BYTES = 24L;
+
+    private final int capacity;
+    private final int mask;
+
+    // Next position to claim, and first position not yet released by the consumer.
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    // published[i] == position + 1 once the slot for that position is readable.
+    private final AtomicLongArray published;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final byte[] kind;
+    private final long[] id;
+    private final long[] eventId;
+    // Creation time of a transaction's parent event, which decides the partition both are written to.
+    private final long[] eventCreatedAt;
+    // The server keeps one UUID instance per player, so queuing it costs nothing extra.
+    private final UUID[] playerUuid;
+    private final String[] playerName;
+    private final String[] world;
+    private final int[] x;
+    private final int[] y;
+    private final int[] z;
+    private final String[] type;
+    private final String[] blockData;
+    // Captured instead of blockData by the listeners, so the string is only built off the server thread.
+    private final BlockData[] blockState;
+    private final String[] rollbackSkipReason;
+    private final BlockGroup[] group;
+    private final byte[] action;
+    private final byte[] cause;
+    private final int[] delta;
+    private final long[] createdAt;
+    // True for a record followed by more of the same run, so a batch never ends inside one.
+    private final boolean[] continuesRun;
+
+    IngestRing(int minimumCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, minimumCapacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        this.kind = new byte[size];
+        this.id = new long[size];
+        this.eventId = new long[size];
+        this.eventCreatedAt = new long[size];
+        this.playerUuid = new UUID[size];
+        this.playerName = new String[size];
+        this.world = new String[size];
+        this.x = new int[size];
+        this.y = new int[size];
+        this.z = new int[size];
+        this.type = new String[size];
+        this.blockData = new String[size];
+        this.blockState = new BlockData[size];
+        this.rollbackSkipReason = new String[size];
+        this.group = new BlockGroup[size];
+        this.action = new byte[size];
+        this.cause = new byte[size];
+        this.delta = new int[size];
+        this.createdAt = new long[size];
+        this.continuesRun = new boolean[size];
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /** Records claimed but not yet released, including ones still being written. */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /** Estimated heap held by the strings of queued records. */
+    long retainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /** Rough heap cost of a queued string: a compact Latin-1 string plus its object headers. */
+    static long estimateBytes(String value) {
+        return value == null ? 0 : 48L + value.length();
+    }
+
+    /**
+     * Rough heap cost of an event's block data: the string, or the wrapper the server creates around its shared
+     * state on every {@code getBlockData} call. The state itself is shared and costs nothing extra.
+     */
+    private static long estimateBytes(String data, BlockData state) {
+        return state != null ? BLOCK_STATE_BYTES : estimateBytes(data);
+    }
+
+    /** First position not yet released by the consumer. */
+    long head() {
+        return head.get();
+    }
+
+    /** Claims {@code count} consecutive positions, or returns -1 when they do not fit. */
+    long claim(int count) {
+        while (true) {
+            long claimed = tail.get();
+            if (claimed + count - head.get() > capacity) {
+                return -1L;
+            }
+            if (tail.compareAndSet(claimed, claimed + count)) {
+                return claimed;
+            }
+        }
+    }
+
+    void putEvent(
+            long position,
+            long eventId,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            String blockData,
+            BlockData blockState,
+            String rollbackSkipReason,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) {
+        int i = (int) position & mask;
+        this.kind[i] = EVENT;
+        this.id[i] = eventId;
+        this.playerUuid[i] = playerUuid;
+        this.playerName[i] = playerName;
+        this.world[i] = worldName;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        this.type[i] = blockType;
+        this.blockData[i] = blockState != null ? null : blockData;
+        this.blockState[i] = blockState;
+        this.rollbackSkipReason[i] = rollbackSkipReason;
+        this.action[i] = (byte) actionCode;
+        this.cause[i] = (byte) causeCode;
+        this.createdAt[i] = createdAt;
+        retainedBytes.addAndGet(estimateBytes(playerName) + estimateBytes(worldName)
+                + estimateBytes(blockType) + estimateBytes(blockData, blockState) + estimateBytes(rollbackSkipReason));
+    }
+
+    void putGroup(
+            long position,
+            long firstEventId,
+            UUID playerUuid,
+            String playerName,
+            BlockGroup blocks,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) {
+        int i = (int) position & mask;
+        this.kind[i] = GROUP;
+        this.id[i] = firstEventId;
+        this.playerUuid[i] = playerUuid;
+        this.playerName[i] = playerName;
+        this.world[i] = blocks.world();
+        this.group[i] = blocks;
+        this.action[i] = (byte) actionCode;
+        this.cause[i] = (byte) causeCode;
+        this.createdAt[i] = createdAt;
+        retainedBytes.addAndGet(estimateBytes(playerName) + blocks.estimateBytes());
+    }
+
+    void putTransaction(
+            long position,
+            long transactionId,
+            long eventId,
+            long eventCreatedAt,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String itemType,
+            int delta,
+            long createdAt
+    ) {
+        int i = (int) position & mask;
+        this.kind[i] = TRANSACTION;
+        this.id[i] = transactionId;
+        this.eventId[i] = eventId;
+        this.eventCreatedAt[i] = eventCreatedAt;
+        this.playerUuid[i] = playerUuid;
+        this.playerName[i] = playerName;
+        this.world[i] = worldName;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        this.type[i] = itemType;
+        this.delta[i] = delta;
+        this.createdAt[i] = createdAt;
+        retainedBytes.addAndGet(estimateBytes(playerName) + estimateBytes(worldName)
+                + estimateBytes(itemType));
+    }
+
+    void publish(long position) {
+        published.setRelease((int) position & mask, position + 1);
+    }
+
+    /**
+     * Publishes {@code count} claimed positions from {@code start} at once. Readers stop at the first
+     * unpublished slot, so publishing the first one last makes the whole run visible together.
+     */
+    void publishAll(long start, int count) {
+        for (long position = start + count - 1; position >= start; position--) {
+            publish(position);
+        }
+    }
+
+    /**
+     * Publishes {@code count} claimed positions from {@code start} as one run, which {@link #wholeRuns} keeps
+     * in a single batch so the records commit together.
+     */
+    void publishRun(long start, int count) {
+        for (long position = start; position < start + count - 1; position++) {
+            continuesRun[(int) position & mask] = true;
+        }
+        publishAll(start, count);
+    }
+
+    /**
+     * Trims {@code count} readable records from the head so they do not end inside a run. When the first run
+     * alone is longer than {@code count}, returns all of it if it lies within {@code limit} records of the head,
+     * or 0 to wait until it does. Consumer only.
+     */
+    int wholeRuns(int count, long limit) {
+        long start = head.get();
+        int end = count;
+        while (end > 0 && continuesRun[(int) (start + end - 1) & mask]) {
+            end--;
+        }
+        if (end > 0 || count == 0) {
+            return end;
+        }
+        // A run is published first slot last, so the rest of one whose first slot is readable is too.
+        int run = count;
+        while (continuesRun[(int) (start + run - 1) & mask]) {
+            run++;
+        }
+        return run <= limit ? run : 0;
+    }
+
+    /** Number of consecutive published records from the head, up to {@code max}. Consumer only. */
+    int readable(int max) {
+        return readableFrom(head.get(), max);
+    }
+
+    /**
+     * Number of consecutive published records from {@code start}, up to {@code max}. For a reader trailing
+     * behind producers that the consumer never overtakes, such as the ingest journal.
+     */
+    int readableFrom(long start, int max) {
+        int count = 0;
+        while (count < max && published.getAcquire((int) (start + count) & mask) == start + count + 1) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Hands {@code count} records from the head back to producers. Consumer only. */
+    void release(int count) {
+        long start = head.get();
+        long freed = 0;
+        for (long position = start; position < start + count; position++) {
+            int i = (int) position & mask;
+            freed += estimateBytes(playerName[i]) + estimateBytes(world[i])
+                    + estimateBytes(type[i]) + estimateBytes(blockData[i], blockState[i])
+                    + estimateBytes(rollbackSkipReason[i]);
+            if (group[i] != null) {
+                // The world string belongs to the group's estimate.
+                freed += group[i].estimateBytes() - estimateBytes(world[i]);
+            }
+            playerUuid[i] = null;
+            playerName[i] = null;
+            world[i] = null;
+            type[i] = null;
+            blockData[i] = null;
+            blockState[i] = null;
+            rollbackSkipReason[i] = null;
+            group[i] = null;
+            continuesRun[i] = false;
+        }
+        retainedBytes.addAndGet(-freed);
+        head.set(start + count);
+    }
+
+    byte kind(long position) {
+        return kind[(int) position & mask];
+    }
+
+    long id(long position) {
+        return id[(int) position & mask];
+    }
+
+    /** Parent event of a transaction. */
+    long eventId(long position) {
+        return eventId[(int) position & mask];
+    }
+
+    /** Creation time of a transaction's parent event. */
+    long eventCreatedAt(long position) {
+        return eventCreatedAt[(int) position & mask];
+    }
+
+    UUID playerUuid(long position) {
+        return playerUuid[(int) position & mask];
+    }
+
+    String playerName(long position) {
+        return playerName[(int) position & mask];
+    }
+
+    String world(long position) {
+        return world[(int) position & mask];
+    }
+
+    int x(long position) {
+        return x[(int) position & mask];
+    }
+
+    int y(long position) {
+        return y[(int) position & mask];
+    }
+
+    int z(long position) {
+        return z[(int) position & mask];
+    }
+
+    /** Block type for an event, item type for a transaction. */
+    String type(long position) {
+        return type[(int) position & mask];
+    }
+
+    /** Serialized block data. A captured state is serialized by the calling thread on every call. */
+    String blockData(long position) {
+        int i = (int) position & mask;
+        BlockData state = blockState[i];
+        return state != null ? state.getAsString() : blockData[i];
+    }
+
+    /** The captured block state of an event, or null when only the serialized form was queued. */
+    BlockData blockState(long position) {
+        return blockState[(int) position & mask];
+    }
+
+    String rollbackSkipReason(long position) {
+        return rollbackSkipReason[(int) position & mask];
+    }
+
+    /** The blocks of a group record. */
+    BlockGroup group(long position) {
+        return group[(int) position & mask];
+    }
+
+    int action(long position) {
+        return action[(int) position & mask];
+    }
+
+    /** Cause code, or 0 when the cause is unknown. */
+    int cause(long position) {
+        return cause[(int) position & mask];
+    }
+
+    int delta(long position) {
+        return delta[(int) position & mask];
+    }
+
+    long createdAt(long position) {
+        return createdAt[(int) position & mask];
+    }
+}
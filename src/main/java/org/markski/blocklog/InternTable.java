@@ -0,0 +1,97 @@
+package org.markski.blocklog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps repeated strings (world names, materials, block data) to small integer ids stored in a lookup table.
+ * Only the writer thread may use an instance; ids handed out inside a transaction are forgotten again if
+ * that transaction rolls back.
+ */
+final class InternTable {
+    private final String table;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> uncommitted = new ArrayList<>();
+
+    private PreparedStatement selectPs;
+    private PreparedStatement insertPs;
+
+    InternTable(String table) {
+        this.table = table;
+    }
+
+    String createTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + table + " (\n"
+                + "    id    INTEGER PRIMARY KEY,\n"
+                + "    value TEXT    NOT NULL UNIQUE\n"
+                + ");";
+    }
+
+    int idFor(Connection c, String value) throws SQLException {
+        Integer cached = ids.get(value);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (selectPs == null || selectPs.isClosed()) {
+            selectPs = c.prepareStatement("SELECT id FROM " + table + " WHERE value = ?;");
+        }
+        selectPs.setString(1, value);
+        int id;
+        try (ResultSet rs = selectPs.executeQuery()) {
+            id = rs.next() ? rs.getInt(1) : 0;
+        }
+
+        if (id == 0) {
+            if (insertPs == null || insertPs.isClosed()) {
+                insertPs = c.prepareStatement(
+                        "INSERT INTO " + table + " (value) VALUES (?);",
+                        Statement.RETURN_GENERATED_KEYS
+                );
+            }
+            insertPs.setString(1, value);
+            insertPs.executeUpdate();
+            try (ResultSet keys = insertPs.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No id generated for " + table + " entry.");
+                }
+                id = keys.getInt(1);
+            }
+            uncommitted.add(value);
+        }
+
+        ids.put(value, id);
+        return id;
+    }
+
+    void commit() {
+        uncommitted.clear();
+    }
+
+    void rollback() {
+        for (String value : uncommitted) {
+            ids.remove(value);
+        }
+        uncommitted.clear();
+    }
+
+    void close() {
+        closeQuietly(selectPs);
+        closeQuietly(insertPs);
+        selectPs = null;
+        insertPs = null;
+    }
+
+    private static void closeQuietly(AutoCloseable ac) {
+        if (ac != null) {
+            try { ac.close(); } catch (Exception ignored) {}
+        }
+    }
+}
@@ -55,6 +55,9 @@ public class Main extends JavaPlugin {
         if (commandExecutor != null) {
             commandExecutor.shutdown();
         }
+        if (blockActionListener != null) {
+            blockActionListener.shutdown();
+        }
         if (database != null) {
             database.close();
         }
@@ -0,0 +1,95 @@
+package org.markski.blocklog;
+
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.TileState;
+import org.bukkit.block.data.Bisected;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.inventory.InventoryHolder;
+
+/**
+ * What the listeners need to know about each block material, worked out once at startup from a detached
+ * default state. Asking a placed block instead means {@code getState()}, which copies its tile entity on every
+ * click, place and break. Materials that could not be classified are marked so callers take a real snapshot.
+ */
+final class MaterialCapabilities {
+    private static final byte CONTAINER = 1;
+    private static final byte INTERACTIVE = 1 << 1;
+    private static final byte TILE_ENTITY = 1 << 2;
+    private static final byte MULTI_BLOCK = 1 << 3;
+    private static final byte UNKNOWN = 1 << 4;
+
+    private final byte[] flags;
+
+    private MaterialCapabilities(byte[] flags) {
+        this.flags = flags;
+    }
+
+    static MaterialCapabilities build() {
+        Material[] materials = Material.values();
+        byte[] flags = new byte[materials.length];
+        for (Material material : materials) {
+            // Legacy constants never appear on placed blocks. Matched by name, since isLegacy is deprecated.
+            if (!material.isBlock() || material.name().startsWith("LEGACY_")) {
+                continue;
+            }
+            flags[material.ordinal()] = classify(material);
+        }
+        return new MaterialCapabilities(flags);
+    }
+
+    private static byte classify(Material material) {
+        byte result = 0;
+        // doors and gates of any type
+        if (Tag.DOORS.isTagged(material) || Tag.TRAPDOORS.isTagged(material) || Tag.FENCE_GATES.isTagged(material)
+                || Tag.BUTTONS.isTagged(material) || material == Material.LEVER) {
+            result |= INTERACTIVE;
+        }
+        if (Tag.BEDS.isTagged(material)) {
+            result |= MULTI_BLOCK;
+        }
+
+        try {
+            BlockData data = material.createBlockData();
+            if (data instanceof Bisected && !Tag.TRAPDOORS.isTagged(material)) {
+                result |= MULTI_BLOCK;
+            }
+            BlockState state = data.createBlockState();
+            if (state instanceof TileState) {
+                result |= TILE_ENTITY;
+            }
+            if (state instanceof InventoryHolder) {
+                result |= CONTAINER;
+            }
+        } catch (RuntimeException e) {
+            result |= UNKNOWN;
+        }
+        return result;
+    }
+
+    boolean isContainer(Material material) {
+        return has(material, CONTAINER);
+    }
+
+    boolean isInteractive(Material material) {
+        return has(material, INTERACTIVE);
+    }
+
+    boolean hasTileEntity(Material material) {
+        return has(material, TILE_ENTITY);
+    }
+
+    boolean isMultiBlock(Material material) {
+        return has(material, MULTI_BLOCK);
+    }
+
+    /** True when the table could not classify {@code material} and a real block state must be checked. */
+    boolean needsSnapshot(Material material) {
+        return has(material, UNKNOWN);
+    }
+
+    private boolean has(Material material, byte flag) {
+        return (flags[material.ordinal()] & flag) != 0;
+    }
+}
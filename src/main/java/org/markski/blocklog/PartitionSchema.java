@@ -0,0 +1,274 @@
+package org.markski.blocklog;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Tables and statements of one time partition, which is attached to a connection under a schema name. The
+ * benchmarks build and query their databases through these too, so they measure the schema the plugin uses.
+ */
+final class PartitionSchema {
+    private PartitionSchema() {}
+
+    // Rows per multi-row insert statement, largest first. A batch is written with as many of the largest
+    // statements as fit and finished with smaller ones, so only these few statements are ever prepared.
+    static final int[] INSERT_ROWS = {256, 32, 4, 1};
+    static final int EVENT_COLUMNS = 10;
+    static final int TX_COLUMNS = 10;
+
+    static final String EVENTS_INSERT_SQL = """
+            INSERT OR IGNORE INTO %s.events_recent (
+                id,
+                player_uuid,
+                world_id,
+                pos,
+                block_type_id,
+                block_data_id,
+                rollback_skip_reason,
+                action,
+                created_at,
+                cause
+            ) VALUES
+            """;
+
+    static final String GROUP_INSERT_SQL = """
+            INSERT OR IGNORE INTO %s.event_groups (
+                id,
+                player_uuid,
+                world_id,
+                action,
+                created_at,
+                cause,
+                block_count,
+                min_x,
+                min_y,
+                min_z,
+                max_x,
+                max_y,
+                max_z,
+                blocks
+            ) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);
+            """;
+
+    static final String TX_INSERT_SQL = """
+            INSERT OR IGNORE INTO %s.container_transactions (
+                id,
+                event_id,
+                player_uuid,
+                world_id,
+                x,
+                y,
+                z,
+                item_type_id,
+                delta,
+                created_at
+            ) VALUES
+            """;
+
+    static final String EVENT_FIELDS = """
+            id, player_uuid, world_id, pos, block_type_id, block_data_id, rollback_skip_reason, action,
+            created_at, cause""";
+
+    // Moves the staged events up to an id into the clustered table, in its key order.
+    static final String[] MERGE_SQL = {
+            """
+            INSERT OR IGNORE INTO %1$s.events (%2$s)
+            SELECT %2$s FROM %1$s.events_recent
+            WHERE id <= ?
+            ORDER BY world_id, pos, created_at, id;
+            """,
+            """
+            DELETE FROM %1$s.events_recent
+            WHERE id <= ?;
+            """
+    };
+
+    // Materialized, so the key and position checks run on index entries alone instead of on every event
+    // of the player in the time range.
+    private static final String ROLLBACK_EVENTS_SQL = """
+            WITH candidates AS MATERIALIZED (
+                SELECT world_id, pos, created_at, id
+                FROM %1$s.events
+                WHERE player_uuid = ?
+                  AND created_at >= ?
+                  AND world_id = (SELECT id FROM worlds WHERE value = ?)
+                  AND %2$s BETWEEN ? AND ?
+                  AND %3$s BETWEEN ? AND ?
+                  AND %4$s BETWEEN ? AND ?
+            )
+            SELECT e.id,
+                   e.pos,
+                   m.value AS block_type,
+                   bs.value AS block_data,
+                   e.rollback_skip_reason,
+                   e.player_uuid,
+                   e.action,
+                   e.created_at
+            FROM (
+                -- Merged events are matched in the player index and only then read, staged ones by scanning
+                -- the few left.
+                SELECT e.id, e.player_uuid, e.world_id, e.pos, e.block_type_id, e.block_data_id,
+                       e.rollback_skip_reason, e.action, e.created_at
+                FROM candidates c
+                CROSS JOIN %1$s.events e
+                    ON e.world_id = c.world_id AND e.pos = c.pos AND e.created_at = c.created_at AND e.id = c.id
+                UNION ALL
+                SELECT id, player_uuid, world_id, pos, block_type_id, block_data_id,
+                       rollback_skip_reason, action, created_at
+                FROM %1$s.events_recent
+            ) e
+            JOIN materials m ON m.id = e.block_type_id
+            JOIN block_states bs ON bs.id = e.block_data_id
+            WHERE e.world_id = (SELECT id FROM worlds WHERE value = ?)
+              AND e.player_uuid = ?
+              AND e.created_at >= ?
+              AND %2$s BETWEEN ? AND ?
+              AND %3$s BETWEEN ? AND ?
+              AND %4$s BETWEEN ? AND ?
+              AND e.action IN (?, ?)
+            ORDER BY e.created_at DESC, e.id DESC
+            LIMIT ?;
+            """;
+
+    private static final String ROLLBACK_GROUPS_SQL = """
+            SELECT g.id, g.player_uuid, g.action, g.created_at,
+                   g.block_count, g.min_x, g.min_y, g.min_z, g.blocks
+            FROM %1$s.event_groups g
+            WHERE g.world_id = (SELECT id FROM worlds WHERE value = ?)
+              AND g.player_uuid = ?
+              AND g.created_at >= ?
+              AND g.max_x >= ? AND g.min_x <= ?
+              AND g.max_y >= ? AND g.min_y <= ?
+              AND g.max_z >= ? AND g.min_z <= ?
+              AND g.action IN (?, ?)
+            ORDER BY g.created_at DESC, g.id DESC;
+            """;
+
+    /** Creates the tables of a partition attached as {@code schema}, in order. */
+    static List<String> createTableSql(String schema) {
+        return Stream.of(
+                """
+                CREATE TABLE IF NOT EXISTS %1$s.events (
+                    id           INTEGER NOT NULL,  -- EventIdGenerator, time-ordered
+                    player_uuid  BLOB    NOT NULL,  -- 16 bytes, most significant first
+                    world_id     INTEGER NOT NULL,  -- worlds.id in the main database
+                    pos          INTEGER NOT NULL,  -- BlockPos.pack
+                    block_type_id INTEGER NOT NULL, -- materials.id
+                    block_data_id INTEGER NOT NULL, -- block_states.id
+                    rollback_skip_reason TEXT,
+                    action       INTEGER NOT NULL,  -- BlockActionType code
+                    created_at   INTEGER NOT NULL,
+                    cause        INTEGER,           -- BlockActionCause code, nullable
+                    -- Clustered by block, so one block's history is a single range of the table.
+                    PRIMARY KEY (world_id, pos, created_at, id)
+                ) WITHOUT ROWID;
+                """,
+                """
+                CREATE UNIQUE INDEX IF NOT EXISTS %1$s.idx_events_id
+                ON events (id);
+                """,
+                // New events land here, indexed only by id and position, and are merged into events in sorted
+                // batches. Reads cover both tables.
+                """
+                CREATE TABLE IF NOT EXISTS %1$s.events_recent (
+                    id           INTEGER PRIMARY KEY,
+                    player_uuid  BLOB    NOT NULL,
+                    world_id     INTEGER NOT NULL,
+                    pos          INTEGER NOT NULL,
+                    block_type_id INTEGER NOT NULL,
+                    block_data_id INTEGER NOT NULL,
+                    rollback_skip_reason TEXT,
+                    action       INTEGER NOT NULL,
+                    created_at   INTEGER NOT NULL,
+                    cause        INTEGER
+                );
+                """,
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_events_recent_world_pos
+                ON events_recent (world_id, pos);
+                """,
+                // Also rollback's way in: its entries carry the primary key, so a box is checked against the position
+                // before any event row is read.
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_events_player_time
+                ON events (player_uuid, created_at);
+                """,
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_events_created_at
+                ON events (created_at);
+                """,
+                """
+                CREATE TABLE IF NOT EXISTS %1$s.event_groups (
+                    id           INTEGER PRIMARY KEY,  -- id of the first block; block i has id + i
+                    player_uuid  BLOB    NOT NULL,  -- 16 bytes, most significant first
+                    world_id     INTEGER NOT NULL,  -- worlds.id in the main database
+                    action       INTEGER NOT NULL,  -- BlockActionType code
+                    created_at   INTEGER NOT NULL,
+                    cause        INTEGER,           -- BlockActionCause code, nullable
+                    block_count  INTEGER NOT NULL,
+                    min_x        INTEGER NOT NULL,  -- bounding box of the blocks
+                    min_y        INTEGER NOT NULL,
+                    min_z        INTEGER NOT NULL,
+                    max_x        INTEGER NOT NULL,
+                    max_y        INTEGER NOT NULL,
+                    max_z        INTEGER NOT NULL,
+                    blocks       BLOB    NOT NULL   -- BlockGroup.pack
+                );
+                """,
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_event_groups_world_x
+                ON event_groups (world_id, min_x);
+                """,
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_event_groups_player_time
+                ON event_groups (player_uuid, created_at);
+                """,
+                """
+                CREATE TABLE IF NOT EXISTS %1$s.container_transactions (
+                    id          INTEGER PRIMARY KEY,
+                    event_id    INTEGER NOT NULL,
+                    player_uuid BLOB    NOT NULL,
+                    world_id    INTEGER NOT NULL,  -- worlds.id in the main database
+                    x           INTEGER NOT NULL,
+                    y           INTEGER NOT NULL,
+                    z           INTEGER NOT NULL,
+                    item_type_id INTEGER NOT NULL, -- materials.id
+                    delta       INTEGER NOT NULL,
+                    created_at  INTEGER NOT NULL  -- event_id is in events or events_recent
+                );
+                """,
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_container_transactions_event
+                ON container_transactions (event_id);
+                """,
+                """
+                CREATE INDEX IF NOT EXISTS %1$s.idx_container_transactions_world_xyz_time
+                ON container_transactions (world_id, x, y, z, created_at);
+                """,
+                """
+                CREATE TABLE IF NOT EXISTS %1$s.event_summaries (
+                    event_id          INTEGER PRIMARY KEY,  -- events.id or events_recent.id
+                    transaction_count INTEGER NOT NULL,
+                    recent_items      TEXT    NOT NULL      -- newest SUMMARY_ITEMS as type:delta, comma-separated
+                );
+                """
+        ).map(sql -> sql.formatted(schema)).toList();
+    }
+
+    /** Header and {@code rows} placeholder tuples of a multi-row insert. */
+    static String multiRowInsert(String head, int columns, int rows) {
+        String row = "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+        return head + String.join(",\n", Collections.nCopies(rows, row)) + ";";
+    }
+
+    /** A player's placed or broken events in a box since a time, newest first, from the partition {@code schema}. */
+    static String rollbackEventsSql(String schema) {
+        return ROLLBACK_EVENTS_SQL.formatted(schema, BlockPos.SQL_X, BlockPos.SQL_Y, BlockPos.SQL_Z);
+    }
+
+    /** A player's placed or broken groups overlapping a box since a time, newest first. */
+    static String rollbackGroupsSql(String schema) {
+        return ROLLBACK_GROUPS_SQL.formatted(schema);
+    }
+}
@@ -0,0 +1,139 @@
+package org.markski.blocklog;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The time partitions that hold events and container transactions. Each partition covers a fixed number of days
+ * and is its own database file, ATTACHed next to the main one, so expired history is dropped by deleting a file
+ * instead of by one huge DELETE. Rows are placed by their creation time and a transaction by its parent event's,
+ * so it always lands in the same partition as its parent, and a partition's range bounds the created_at of every
+ * event in it. Ranges never overlap, even if the span is changed between runs. Only the database thread adds or
+ * removes partitions; readers take snapshots.
+ */
+final class Partitions {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // 1970-01-05 was a Monday, so seven-day partitions run Monday to Sunday.
+    private static final long FIRST_MONDAY = 4L;
+    private static final Pattern FILE_NAME = Pattern.compile("events-(\\d{4}-\\d{2}-\\d{2})-(\\d+)d\\.sqlite");
+
+    /** One partition: events created in [start, end), and their transactions. */
+    record Partition(long start, long end, File file) {
+        /** Schema name the partition is attached under. */
+        String schema() {
+            return "p_" + LocalDate.ofEpochDay(start / DAY_MILLIS).toString().replace('-', '_');
+        }
+
+        boolean overlaps(long from) {
+            return end > from;
+        }
+    }
+
+    private final File folder;
+    private final int days;
+    private final ConcurrentSkipListMap<Long, Partition> byStart = new ConcurrentSkipListMap<>();
+
+    Partitions(File folder, int days) {
+        this.folder = folder;
+        this.days = days;
+    }
+
+    File folder() {
+        return folder;
+    }
+
+    /** Picks up the partition files already on disk. */
+    void load() {
+        byStart.clear();
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            Matcher matcher = FILE_NAME.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            try {
+                long start = LocalDate.parse(matcher.group(1)).toEpochDay() * DAY_MILLIS;
+                long end = start + Long.parseLong(matcher.group(2)) * DAY_MILLIS;
+                byStart.put(start, new Partition(start, end, file));
+            } catch (DateTimeParseException | NumberFormatException ignored) {
+            }
+        }
+    }
+
+    /**
+     * The partition that holds rows stamped {@code millis}: a known one, or a new range that still has to be
+     * created. New ranges are cut short where they would run into an existing partition.
+     */
+    Partition forTimestamp(long millis) {
+        Map.Entry<Long, Partition> floor = byStart.floorEntry(millis);
+        if (floor != null && floor.getValue().end() > millis) {
+            return floor.getValue();
+        }
+
+        long day = Math.floorDiv(millis, DAY_MILLIS);
+        long startDay = Math.floorDiv(day - FIRST_MONDAY, days) * days + FIRST_MONDAY;
+        long start = startDay * DAY_MILLIS;
+        long end = start + days * DAY_MILLIS;
+        if (floor != null) {
+            start = Math.max(start, floor.getValue().end());
+        }
+        Long next = byStart.higherKey(millis);
+        if (next != null) {
+            end = Math.min(end, next);
+        }
+        String name = "events-" + LocalDate.ofEpochDay(start / DAY_MILLIS) + "-"
+                + (end - start) / DAY_MILLIS + "d.sqlite";
+        return new Partition(start, end, new File(folder, name));
+    }
+
+    void add(Partition partition) {
+        byStart.put(partition.start(), partition);
+    }
+
+    void remove(Partition partition) {
+        byStart.remove(partition.start(), partition);
+    }
+
+    /** Every partition, newest first. */
+    List<Partition> newestFirst() {
+        return new ArrayList<>(byStart.descendingMap().values());
+    }
+
+    /** Partitions that may hold rows stamped at or after {@code from}, newest first. */
+    List<Partition> overlapping(long from) {
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : byStart.descendingMap().values()) {
+            if (partition.overlaps(from)) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+
+    /** Partitions that start before {@code cutoff}, oldest first. */
+    List<Partition> startingBefore(long cutoff) {
+        return new ArrayList<>(byStart.headMap(cutoff).values());
+    }
+
+    /** Partitions whose whole range lies before {@code cutoff}. */
+    List<Partition> endingBefore(long cutoff) {
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : byStart.values()) {
+            if (partition.end() <= cutoff) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+}
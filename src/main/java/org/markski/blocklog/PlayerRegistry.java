@@ -0,0 +1,144 @@
+package org.markski.blocklog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The players that appear in the history: each one's current name in {@code players}, and every name they have
+ * used with when they last took it in {@code player_names}, so history rows only store the UUID. Both are kept
+ * in memory, so a name is written only when it changes and resolving one is a map lookup. Only the writer
+ * thread records names; changes made inside a transaction become visible to readers when it commits.
+ */
+final class PlayerRegistry {
+    // Committed state, read by any thread.
+    private final Map<UUID, String> names = new ConcurrentHashMap<>();
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+    // Names recorded by the open transaction. Writer thread only.
+    private final Map<UUID, Holder> uncommitted = new HashMap<>();
+
+    private PreparedStatement upsertPlayerPs;
+    private PreparedStatement upsertNamePs;
+
+    /** The player who most recently took a name, and since when. */
+    private record Holder(UUID uuid, String name, long since) {}
+
+    List<String> createTableSql() {
+        return List.of(
+                """
+                CREATE TABLE IF NOT EXISTS players (
+                    uuid BLOB PRIMARY KEY NOT NULL,  -- 16 bytes, most significant first
+                    name TEXT NOT NULL               -- latest known name
+                ) WITHOUT ROWID;
+                """,
+                """
+                CREATE TABLE IF NOT EXISTS player_names (
+                    uuid  BLOB    NOT NULL,
+                    name  TEXT    NOT NULL,
+                    since INTEGER NOT NULL,  -- when the player last took this name
+                    PRIMARY KEY (uuid, name)
+                ) WITHOUT ROWID;
+                """
+        );
+    }
+
+    /** Reads the committed names into memory. */
+    void load(Connection c) throws SQLException {
+        try (Statement stmt = c.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT uuid, name FROM players;")) {
+                while (rs.next()) {
+                    names.put(Database.uuidFromBytes(rs.getBytes(1)), rs.getString(2));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT uuid, name, since FROM player_names;")) {
+                while (rs.next()) {
+                    promote(new Holder(Database.uuidFromBytes(rs.getBytes(1)), rs.getString(2), rs.getLong(3)));
+                }
+            }
+        }
+    }
+
+    /** Records that {@code uuid} went by {@code name} at {@code at}. Writes only when that is news. */
+    void observe(Connection c, UUID uuid, String name, long at) throws SQLException {
+        Holder pending = uncommitted.get(uuid);
+        String known = pending != null ? pending.name() : names.get(uuid);
+        if (name.equals(known)) {
+            Holder holder = holders.get(key(name));
+            if (pending != null || holder != null && holder.uuid().equals(uuid)) {
+                return;
+            }
+        }
+
+        byte[] uuidBytes = Database.uuidBytes(uuid);
+        if (upsertPlayerPs == null || upsertPlayerPs.isClosed()) {
+            upsertPlayerPs = c.prepareStatement("""
+                    INSERT INTO players (uuid, name) VALUES (?, ?)
+                    ON CONFLICT (uuid) DO UPDATE SET name = excluded.name;
+                    """);
+        }
+        upsertPlayerPs.setBytes(1, uuidBytes);
+        upsertPlayerPs.setString(2, name);
+        upsertPlayerPs.executeUpdate();
+
+        if (upsertNamePs == null || upsertNamePs.isClosed()) {
+            upsertNamePs = c.prepareStatement("""
+                    INSERT INTO player_names (uuid, name, since) VALUES (?, ?, ?)
+                    ON CONFLICT (uuid, name) DO UPDATE SET since = MAX(since, excluded.since);
+                    """);
+        }
+        upsertNamePs.setBytes(1, uuidBytes);
+        upsertNamePs.setString(2, name);
+        upsertNamePs.setLong(3, at);
+        upsertNamePs.executeUpdate();
+
+        uncommitted.put(uuid, new Holder(uuid, name, at));
+    }
+
+    void commit() {
+        for (Holder holder : uncommitted.values()) {
+            names.put(holder.uuid(), holder.name());
+            promote(holder);
+        }
+        uncommitted.clear();
+    }
+
+    void rollback() {
+        uncommitted.clear();
+    }
+
+    /** The player who most recently went by {@code name}, ignoring case, or null if nobody has. */
+    UUID uuidForName(String name) {
+        Holder holder = holders.get(key(name));
+        return holder == null ? null : holder.uuid();
+    }
+
+    void close() {
+        closeQuietly(upsertPlayerPs);
+        closeQuietly(upsertNamePs);
+        upsertPlayerPs = null;
+        upsertNamePs = null;
+    }
+
+    private void promote(Holder holder) {
+        holders.merge(key(holder.name()), holder, (current, candidate) ->
+                candidate.since() >= current.since() ? candidate : current);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static void closeQuietly(AutoCloseable ac) {
+        if (ac != null) {
+            try { ac.close(); } catch (Exception ignored) {}
+        }
+    }
+}
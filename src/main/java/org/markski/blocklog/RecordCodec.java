@@ -0,0 +1,288 @@
+package org.markski.blocklog;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Binary form of queued records shared by the spill file and the ingest journal. Every record is written as a
+ * frame: an int length, the CRC32 of the payload, then the payload. A file whose tail was cut short or
+ * overwritten with garbage is trimmed back to its last frame that checks out.
+ */
+final class RecordCodec {
+    static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    // Bounds the largest group, a full span of block states across the whole build height, with room to spare.
+    static final int MAX_RECORD_BYTES = 1 << 27;
+
+    private RecordCodec() {}
+
+    /** Buffer for one record's payload, written out with its frame header. */
+    static final class FrameBuffer extends ByteArrayOutputStream {
+        private final CRC32 crc = new CRC32();
+
+        FrameBuffer(int size) {
+            super(size);
+        }
+
+        /** Bytes {@link #writeFrame} writes for the current payload. */
+        int frameBytes() {
+            return FRAME_HEADER_BYTES + count;
+        }
+
+        void writeFrame(DataOutputStream out) throws IOException {
+            if (count == 0 || count > MAX_RECORD_BYTES) {
+                throw new IOException("Record of " + count + " bytes cannot be framed.");
+            }
+            crc.reset();
+            crc.update(buf, 0, count);
+            out.writeInt(count);
+            out.writeInt((int) crc.getValue());
+            out.write(buf, 0, count);
+        }
+    }
+
+    static void writeEvent(
+            DataOutputStream out,
+            long eventId,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            String blockData,
+            String rollbackSkipReason,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) throws IOException {
+        out.writeByte(IngestRing.EVENT);
+        out.writeLong(eventId);
+        writeUuid(out, playerUuid);
+        writeString(out, playerName);
+        writeString(out, worldName);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(z);
+        writeString(out, blockType);
+        writeString(out, blockData);
+        writeString(out, rollbackSkipReason);
+        out.writeByte(actionCode);
+        out.writeByte(causeCode);
+        out.writeLong(createdAt);
+    }
+
+    static void writeTransaction(
+            DataOutputStream out,
+            long transactionId,
+            long eventId,
+            long eventCreatedAt,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String itemType,
+            int delta,
+            long createdAt
+    ) throws IOException {
+        out.writeByte(IngestRing.TRANSACTION);
+        out.writeLong(transactionId);
+        out.writeLong(eventId);
+        out.writeLong(eventCreatedAt);
+        writeUuid(out, playerUuid);
+        writeString(out, playerName);
+        writeString(out, worldName);
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeInt(z);
+        writeString(out, itemType);
+        out.writeInt(delta);
+        out.writeLong(createdAt);
+    }
+
+    static void writeGroup(
+            DataOutputStream out,
+            long firstEventId,
+            UUID playerUuid,
+            String playerName,
+            BlockGroup blocks,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) throws IOException {
+        out.writeByte(IngestRing.GROUP);
+        out.writeLong(firstEventId);
+        writeUuid(out, playerUuid);
+        writeString(out, playerName);
+        blocks.write(out);
+        out.writeByte(actionCode);
+        out.writeByte(causeCode);
+        out.writeLong(createdAt);
+    }
+
+    /** Writes the record queued at {@code position} of the ring. */
+    static void writeSlot(DataOutputStream out, IngestRing ring, long position) throws IOException {
+        if (ring.kind(position) == IngestRing.GROUP) {
+            writeGroup(
+                    out,
+                    ring.id(position),
+                    ring.playerUuid(position),
+                    ring.playerName(position),
+                    ring.group(position),
+                    ring.action(position),
+                    ring.cause(position),
+                    ring.createdAt(position)
+            );
+        } else if (ring.kind(position) == IngestRing.EVENT) {
+            writeEvent(
+                    out,
+                    ring.id(position),
+                    ring.playerUuid(position),
+                    ring.playerName(position),
+                    ring.world(position),
+                    ring.x(position), ring.y(position), ring.z(position),
+                    ring.type(position),
+                    ring.blockData(position),
+                    ring.rollbackSkipReason(position),
+                    ring.action(position),
+                    ring.cause(position),
+                    ring.createdAt(position)
+            );
+        } else {
+            writeTransaction(
+                    out,
+                    ring.id(position),
+                    ring.eventId(position),
+                    ring.eventCreatedAt(position),
+                    ring.playerUuid(position),
+                    ring.playerName(position),
+                    ring.world(position),
+                    ring.x(position), ring.y(position), ring.z(position),
+                    ring.type(position),
+                    ring.delta(position),
+                    ring.createdAt(position)
+            );
+        }
+    }
+
+    /**
+     * Reads one frame and returns its payload, checked against the frame's CRC. {@code available} is the number
+     * of bytes left in the file, so a garbage length is rejected before anything is allocated for it. Throws
+     * {@link EOFException} at the end of the file and another {@link IOException} for a frame that does not
+     * check out.
+     */
+    static byte[] readFrame(DataInputStream in, long available) throws IOException {
+        int length = in.readInt();
+        int checksum = in.readInt();
+        if (length <= 0 || length > MAX_RECORD_BYTES || length > available - FRAME_HEADER_BYTES) {
+            throw new IOException("Invalid record length " + length + ".");
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Record checksum mismatch.");
+        }
+        return payload;
+    }
+
+    /** Decodes a payload returned by {@link #readFrame} into the ring slot at {@code position}. */
+    static void readInto(byte[] payload, IngestRing ring, long position) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte kind = record.readByte();
+        long id = record.readLong();
+        if (kind == IngestRing.GROUP) {
+            UUID playerUuid = readUuid(record);
+            String playerName = readString(record);
+            BlockGroup blocks = BlockGroup.read(record);
+            int actionCode = record.readByte();
+            int causeCode = record.readByte();
+            ring.putGroup(position, id, playerUuid, playerName, blocks, actionCode, causeCode, record.readLong());
+            return;
+        }
+        long eventId = kind == IngestRing.TRANSACTION ? record.readLong() : 0L;
+        long eventCreatedAt = kind == IngestRing.TRANSACTION ? record.readLong() : 0L;
+        UUID playerUuid = readUuid(record);
+        String playerName = readString(record);
+        String worldName = readString(record);
+        int x = record.readInt();
+        int y = record.readInt();
+        int z = record.readInt();
+        String type = readString(record);
+        if (kind == IngestRing.EVENT) {
+            String blockData = readString(record);
+            String rollbackSkipReason = readString(record);
+            int actionCode = record.readByte();
+            int causeCode = record.readByte();
+            long createdAt = record.readLong();
+            ring.putEvent(position, id, playerUuid, playerName, worldName, x, y, z,
+                    type, blockData, null, rollbackSkipReason, actionCode, causeCode, createdAt);
+        } else {
+            int delta = record.readInt();
+            long createdAt = record.readLong();
+            ring.putTransaction(position, id, eventId, eventCreatedAt, playerUuid, playerName, worldName, x, y, z,
+                    type, delta, createdAt);
+        }
+    }
+
+    /**
+     * Counts the frames in {@code file} that check out and cuts the file off at the first one that does not: a
+     * partially written last record, or a tail of garbage. Returns the number of records and leaves the file
+     * ending on a frame boundary.
+     */
+    static long trimToLastRecord(File file) throws IOException {
+        long records = 0;
+        long goodLength = 0;
+        long fileLength = file.length();
+        try (DataInputStream scan = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                try {
+                    goodLength += FRAME_HEADER_BYTES + readFrame(scan, fileLength - goodLength).length;
+                } catch (IOException e) {
+                    break;
+                }
+                records++;
+            }
+        }
+        if (goodLength != fileLength) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(goodLength);
+            }
+        }
+        return records;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID value) throws IOException {
+        out.writeLong(value.getMostSignificantBits());
+        out.writeLong(value.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
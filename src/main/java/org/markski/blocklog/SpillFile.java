@@ -0,0 +1,303 @@
+package org.markski.blocklog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only overflow file for records that do not fit in the ingest ring or its memory budget. While the
+ * file holds records every new record is appended here too, so the writer can move them back into the ring in
+ * order once it catches up. The file is only emptied once the records moved back are committed, so a crash in
+ * between writes them again rather than losing them. Each record is framed with its length and checksum, so a
+ * tail cut short by a crash is detected and dropped when the file is recovered on the next start.
+ */
+final class SpillFile {
+    private final File file;
+    private final long maxBytes;
+
+    private volatile boolean active;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private final RecordCodec.FrameBuffer record = new RecordCodec.FrameBuffer(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private long appended;
+    private long consumed;
+    private long bytes;
+    // File offset of the next record to read, a frame already read that found no room in the ring, and the
+    // ring position after the last record moved into it.
+    private long readOffset;
+    private byte[] pending;
+    private long drainedEnd;
+
+    SpillFile(File file, long maxBytes) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Picks up records left behind by a previous run, dropping a partially written last record.
+     * Returns the number of records waiting to be written.
+     */
+    synchronized long recover() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+
+        long records = RecordCodec.trimToLastRecord(file);
+        if (records == 0) {
+            return 0;
+        }
+
+        openOutput();
+        appended = records;
+        consumed = 0;
+        bytes = file.length();
+        readOffset = 0;
+        drainedEnd = 0;
+        active = true;
+        return records;
+    }
+
+    synchronized boolean appendEvent(
+            long eventId,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            String blockData,
+            String rollbackSkipReason,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) {
+        try {
+            record.reset();
+            RecordCodec.writeEvent(recordOut, eventId, playerUuid, playerName, worldName, x, y, z,
+                    blockType, blockData, rollbackSkipReason, actionCode, causeCode, createdAt);
+            return appendRecord();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Appends the events of a bulk enqueue, with consecutive ids from {@code firstId}: all of them or none. */
+    synchronized boolean appendEvents(
+            long firstId,
+            UUID playerUuid,
+            String playerName,
+            List<Database.BlockChange> blocks,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) {
+        try {
+            long batchBytes = 0;
+            List<byte[]> encoded = new ArrayList<>(blocks.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                Database.BlockChange block = blocks.get(i);
+                record.reset();
+                RecordCodec.writeEvent(recordOut, firstId + i, playerUuid, playerName, block.worldName(),
+                        block.x(), block.y(), block.z(), block.blockType(),
+                        block.blockData() == null ? null : block.blockData().getAsString(),
+                        block.rollbackSkipReason(), actionCode, causeCode, createdAt);
+                encoded.add(record.toByteArray());
+                batchBytes += record.frameBytes();
+            }
+            if (bytes + batchBytes > maxBytes) {
+                return false;
+            }
+            for (byte[] payload : encoded) {
+                record.reset();
+                record.write(payload);
+                appendRecord();
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    synchronized boolean appendGroup(
+            long firstEventId,
+            UUID playerUuid,
+            String playerName,
+            BlockGroup blocks,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) {
+        try {
+            record.reset();
+            RecordCodec.writeGroup(recordOut, firstEventId, playerUuid, playerName, blocks, actionCode, causeCode,
+                    createdAt);
+            return appendRecord();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    synchronized boolean appendTransaction(
+            long transactionId,
+            long eventId,
+            long eventCreatedAt,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String itemType,
+            int delta,
+            long createdAt
+    ) {
+        try {
+            record.reset();
+            RecordCodec.writeTransaction(recordOut, transactionId, eventId, eventCreatedAt, playerUuid, playerName,
+                    worldName, x, y, z, itemType, delta, createdAt);
+            return appendRecord();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean appendRecord() throws IOException {
+        if (bytes + record.frameBytes() > maxBytes) {
+            return false;
+        }
+        if (out == null) {
+            openOutput();
+        }
+        record.writeFrame(out);
+        bytes += record.frameBytes();
+        appended++;
+        active = true;
+        return true;
+    }
+
+    /**
+     * Moves spilled records into the ring, oldest first, while it has room and stays under
+     * {@code maxRingBytes}. Once everything has been moved new records go to the ring again, but the file is kept
+     * until {@link #released} confirms the moved records are committed. An unreadable record cuts the file off
+     * there: the records before it are kept and the ones from it on are dropped. Writer thread only.
+     */
+    synchronized int drainInto(IngestRing ring, long maxRingBytes) throws IOException {
+        if (!active) {
+            return 0;
+        }
+
+        int moved = 0;
+        try {
+            if (consumed < appended) {
+                out.flush();
+                if (in == null) {
+                    FileInputStream fileIn = new FileInputStream(file);
+                    fileIn.getChannel().position(readOffset);
+                    in = new DataInputStream(new BufferedInputStream(fileIn, 1 << 16));
+                }
+            }
+            while (consumed < appended && ring.retainedBytes() < maxRingBytes) {
+                if (pending == null) {
+                    pending = RecordCodec.readFrame(in, bytes - readOffset);
+                }
+                long position = ring.claim(1);
+                if (position < 0) {
+                    break;
+                }
+                RecordCodec.readInto(pending, ring, position);
+                ring.publish(position);
+                readOffset += RecordCodec.FRAME_HEADER_BYTES + pending.length;
+                pending = null;
+                drainedEnd = position + 1;
+                consumed++;
+                moved++;
+            }
+        } catch (IOException e) {
+            long dropped = appended - consumed;
+            cutAt(readOffset);
+            throw new IOException(dropped + " records dropped (" + e.getMessage() + ")", e);
+        } finally {
+            if (consumed == appended) {
+                active = false;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Empties the file once everything in it has been moved into the ring and every ring position below
+     * {@code releasedPosition} is committed. Writer thread only.
+     */
+    synchronized void released(long releasedPosition) throws IOException {
+        if (consumed == appended && bytes > 0 && releasedPosition >= drainedEnd) {
+            reset();
+        }
+    }
+
+    synchronized void close() {
+        closeStreams();
+    }
+
+    private void reset() throws IOException {
+        cutAt(0);
+        appended = 0;
+        consumed = 0;
+        readOffset = 0;
+        drainedEnd = 0;
+    }
+
+    /** Truncates the file at {@code offset}, the start of the next unread record, and forgets the rest. */
+    private void cutAt(long offset) throws IOException {
+        closeStreams();
+        pending = null;
+        appended = consumed;
+        bytes = offset;
+        active = false;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(offset);
+        }
+    }
+
+    private void openOutput() throws IOException {
+        fileOut = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+    }
+
+    /** Forces appended records to disk, for the durability tiers that must survive a power loss. */
+    synchronized void sync() throws IOException {
+        if (out != null) {
+            out.flush();
+            fileOut.getChannel().force(false);
+        }
+    }
+
+    private void closeStreams() {
+        closeQuietly(out);
+        closeQuietly(in);
+        fileOut = null;
+        out = null;
+        in = null;
+    }
+
+    private static void closeQuietly(AutoCloseable ac) {
+        if (ac != null) {
+            try { ac.close(); } catch (Exception ignored) {}
+        }
+    }
+}
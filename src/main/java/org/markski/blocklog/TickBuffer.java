@@ -0,0 +1,201 @@
+package org.markski.blocklog;
+
+import org.bukkit.block.data.BlockData;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Events and transactions queued by the server thread during one tick, stored column by column like
+ * {@link IngestRing} but with no synchronization at all. At the end of the tick they are copied into the ring
+ * under a single claim and published together, so the listeners never contend with each other or with the
+ * writer. The arrays grow to the busiest tick seen and are reused. Server thread only.
+ */
+final class TickBuffer {
+    private int size;
+    private byte[] kind;
+    private long[] id;
+    private long[] eventId;
+    private long[] eventCreatedAt;
+    private UUID[] playerUuid;
+    private String[] playerName;
+    private String[] world;
+    private int[] x;
+    private int[] y;
+    private int[] z;
+    private String[] type;
+    private String[] blockData;
+    private BlockData[] blockState;
+    private String[] rollbackSkipReason;
+    private byte[] action;
+    private byte[] cause;
+    private int[] delta;
+    private long[] createdAt;
+
+    TickBuffer(int initialCapacity) {
+        allocate(Math.max(16, initialCapacity));
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte kind(int i) {
+        return kind[i];
+    }
+
+    long id(int i) {
+        return id[i];
+    }
+
+    long eventId(int i) {
+        return eventId[i];
+    }
+
+    void addEvent(
+            long eventId,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String blockType,
+            String blockData,
+            BlockData blockState,
+            String rollbackSkipReason,
+            int actionCode,
+            int causeCode,
+            long createdAt
+    ) {
+        int i = next();
+        this.kind[i] = IngestRing.EVENT;
+        this.id[i] = eventId;
+        this.playerUuid[i] = playerUuid;
+        this.playerName[i] = playerName;
+        this.world[i] = worldName;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        this.type[i] = blockType;
+        this.blockData[i] = blockData;
+        this.blockState[i] = blockState;
+        this.rollbackSkipReason[i] = rollbackSkipReason;
+        this.action[i] = (byte) actionCode;
+        this.cause[i] = (byte) causeCode;
+        this.createdAt[i] = createdAt;
+    }
+
+    void addTransaction(
+            long transactionId,
+            long eventId,
+            long eventCreatedAt,
+            UUID playerUuid,
+            String playerName,
+            String worldName,
+            int x,
+            int y,
+            int z,
+            String itemType,
+            int delta,
+            long createdAt
+    ) {
+        int i = next();
+        this.kind[i] = IngestRing.TRANSACTION;
+        this.id[i] = transactionId;
+        this.eventId[i] = eventId;
+        this.eventCreatedAt[i] = eventCreatedAt;
+        this.playerUuid[i] = playerUuid;
+        this.playerName[i] = playerName;
+        this.world[i] = worldName;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.z[i] = z;
+        this.type[i] = itemType;
+        this.delta[i] = delta;
+        this.createdAt[i] = createdAt;
+    }
+
+    /** Copies record {@code i} into the claimed ring {@code position}, without publishing it. */
+    void copyInto(IngestRing ring, long position, int i) {
+        if (kind[i] == IngestRing.EVENT) {
+            ring.putEvent(position, id[i], playerUuid[i], playerName[i], world[i], x[i], y[i], z[i], type[i],
+                    blockData[i], blockState[i], rollbackSkipReason[i], action[i], cause[i], createdAt[i]);
+        } else {
+            ring.putTransaction(position, id[i], eventId[i], eventCreatedAt[i], playerUuid[i], playerName[i],
+                    world[i], x[i], y[i], z[i], type[i], delta[i], createdAt[i]);
+        }
+    }
+
+    /** Appends record {@code i} to the spill file. Returns false when it is full. */
+    boolean spillInto(SpillFile spill, int i) {
+        if (kind[i] == IngestRing.EVENT) {
+            return spill.appendEvent(id[i], playerUuid[i], playerName[i], world[i], x[i], y[i], z[i], type[i],
+                    blockState[i] != null ? blockState[i].getAsString() : blockData[i], rollbackSkipReason[i],
+                    action[i], cause[i], createdAt[i]);
+        }
+        return spill.appendTransaction(id[i], eventId[i], eventCreatedAt[i], playerUuid[i], playerName[i], world[i],
+                x[i], y[i], z[i], type[i], delta[i], createdAt[i]);
+    }
+
+    /** Empties the buffer, dropping its references so queued strings and states can be collected. */
+    void clear() {
+        Arrays.fill(playerUuid, 0, size, null);
+        Arrays.fill(playerName, 0, size, null);
+        Arrays.fill(world, 0, size, null);
+        Arrays.fill(type, 0, size, null);
+        Arrays.fill(blockData, 0, size, null);
+        Arrays.fill(blockState, 0, size, null);
+        Arrays.fill(rollbackSkipReason, 0, size, null);
+        size = 0;
+    }
+
+    private int next() {
+        if (size == kind.length) {
+            grow(size * 2);
+        }
+        return size++;
+    }
+
+    private void allocate(int capacity) {
+        kind = new byte[capacity];
+        id = new long[capacity];
+        eventId = new long[capacity];
+        eventCreatedAt = new long[capacity];
+        playerUuid = new UUID[capacity];
+        playerName = new String[capacity];
+        world = new String[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        z = new int[capacity];
+        type = new String[capacity];
+        blockData = new String[capacity];
+        blockState = new BlockData[capacity];
+        rollbackSkipReason = new String[capacity];
+        action = new byte[capacity];
+        cause = new byte[capacity];
+        delta = new int[capacity];
+        createdAt = new long[capacity];
+    }
+
+    private void grow(int capacity) {
+        kind = Arrays.copyOf(kind, capacity);
+        id = Arrays.copyOf(id, capacity);
+        eventId = Arrays.copyOf(eventId, capacity);
+        eventCreatedAt = Arrays.copyOf(eventCreatedAt, capacity);
+        playerUuid = Arrays.copyOf(playerUuid, capacity);
+        playerName = Arrays.copyOf(playerName, capacity);
+        world = Arrays.copyOf(world, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        type = Arrays.copyOf(type, capacity);
+        blockData = Arrays.copyOf(blockData, capacity);
+        blockState = Arrays.copyOf(blockState, capacity);
+        rollbackSkipReason = Arrays.copyOf(rollbackSkipReason, capacity);
+        action = Arrays.copyOf(action, capacity);
+        cause = Arrays.copyOf(cause, capacity);
+        delta = Arrays.copyOf(delta, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+    }
+}
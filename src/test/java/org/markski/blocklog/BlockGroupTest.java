@@ -0,0 +1,119 @@
+package org.markski.blocklog;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class BlockGroupTest {
+    private static final int WORLD_BORDER = 30_000_000;
+
+    @Test
+    void packsTheWidestGroupAtTheWorldBorder() throws IOException {
+        // Both corners of the widest box, at the positive x and negative z border, across the whole build height.
+        List<Database.BlockChange> blocks = new ArrayList<>();
+        blocks.add(change(WORLD_BORDER - BlockGroup.MAX_SPAN, -64, -WORLD_BORDER));
+        blocks.add(change(WORLD_BORDER, 319, -WORLD_BORDER + BlockGroup.MAX_SPAN));
+        blocks.add(change(WORLD_BORDER - 1, 0, -WORLD_BORDER + 1));
+        BlockGroup group = BlockGroup.of(blocks);
+        assertTrue(group.fitsOneRow());
+
+        List<BlockGroup.StoredBlock> stored = roundTrip(group);
+
+        assertEquals(blocks.size(), stored.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            BlockGroup.StoredBlock block = stored.get(i);
+            assertEquals(i, block.index());
+            assertEquals(blocks.get(i).x(), block.x());
+            assertEquals(blocks.get(i).y(), block.y());
+            assertEquals(blocks.get(i).z(), block.z());
+            assertEquals(100 + i, block.typeId());
+            assertEquals(-1 - i, block.dataId());
+        }
+    }
+
+    @Test
+    void packsNegativeCoordinatesAcrossZero() throws IOException {
+        List<Database.BlockChange> blocks = List.of(
+                change(-32, -64, 31),
+                change(32, 319, -33),
+                change(0, -1, 0));
+        List<BlockGroup.StoredBlock> stored = roundTrip(BlockGroup.of(blocks));
+
+        for (int i = 0; i < blocks.size(); i++) {
+            assertEquals(blocks.get(i).x(), stored.get(i).x());
+            assertEquals(blocks.get(i).y(), stored.get(i).y());
+            assertEquals(blocks.get(i).z(), stored.get(i).z());
+        }
+    }
+
+    @Test
+    void groupsWiderThanTheSpanDoNotFitOneRow() {
+        assertFalse(BlockGroup.of(List.of(change(0, 64, 0), change(BlockGroup.MAX_SPAN + 1, 64, 0))).fitsOneRow());
+        assertFalse(BlockGroup.of(List.of(change(0, 64, 0), change(0, 64, -BlockGroup.MAX_SPAN - 1))).fitsOneRow());
+        assertTrue(BlockGroup.of(List.of(change(0, -64, 0), change(0, 319, 0))).fitsOneRow());
+    }
+
+    @Test
+    void keepsSkipReasonsThroughPacking() throws IOException {
+        BlockGroup group = BlockGroup.of(List.of(
+                new Database.BlockChange("world", 1, 2, 3, "CHEST", null, "container"),
+                new Database.BlockChange("world", 2, 2, 3, "STONE", null, null)));
+
+        List<BlockGroup.StoredBlock> stored = roundTrip(group);
+
+        assertEquals("container", stored.get(0).rollbackSkipReason());
+        assertNull(stored.get(1).rollbackSkipReason());
+    }
+
+    @Test
+    void survivesTheQueueFormat() throws IOException {
+        BlockGroup group = BlockGroup.of(List.of(
+                new Database.BlockChange("world_nether", -WORLD_BORDER, -64, WORLD_BORDER, "TNT", null, null),
+                new Database.BlockChange("world_nether", -WORLD_BORDER + 3, 319, WORLD_BORDER - 2, "OBSIDIAN",
+                        null, "protected")));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        group.write(new DataOutputStream(bytes));
+
+        BlockGroup read = BlockGroup.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals("world_nether", read.world());
+        assertEquals(group.size(), read.size());
+        for (int i = 0; i < group.size(); i++) {
+            assertEquals(group.x(i), read.x(i));
+            assertEquals(group.y(i), read.y(i));
+            assertEquals(group.z(i), read.z(i));
+            assertEquals(group.type(i), read.type(i));
+            assertEquals(group.rollbackSkipReason(i), read.rollbackSkipReason(i));
+        }
+        assertEquals(group.minX(), read.minX());
+        assertEquals(group.maxY(), read.maxY());
+        assertEquals(group.minZ(), read.minZ());
+    }
+
+    private static Database.BlockChange change(int x, int y, int z) {
+        return new Database.BlockChange("world", x, y, z, "STONE", null, null);
+    }
+
+    private static List<BlockGroup.StoredBlock> roundTrip(BlockGroup group) throws IOException {
+        int[] typeIds = new int[group.size()];
+        int[] dataIds = new int[group.size()];
+        for (int i = 0; i < group.size(); i++) {
+            typeIds[i] = 100 + i;
+            dataIds[i] = -1 - i;
+        }
+        byte[] packed = group.pack(typeIds, dataIds, new Deflater());
+        return BlockGroup.unpack(packed, group.size(), group.minX(), group.minY(), group.minZ());
+    }
+}
@@ -0,0 +1,111 @@
+package org.markski.blocklog;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class BlockPosTest {
+    // The world border, the build height limits, and the values around each field's sign bit and range ends.
+    private static final int[] HORIZONTAL = {
+            -30_000_000, 30_000_000, -(1 << 25), (1 << 25) - 1, -1, 0, 1, -16, 15, 123_456, -654_321
+    };
+    private static final int[] VERTICAL = {-64, 319, -2048, 2047, -1, 0, 1, 63, -65, 320};
+
+    @Test
+    void unpacksWhatItPacks() {
+        for (int x : HORIZONTAL) {
+            for (int y : VERTICAL) {
+                for (int z : HORIZONTAL) {
+                    long pos = BlockPos.pack(x, y, z);
+                    assertEquals(x, BlockPos.x(pos), () -> "x of " + x + "," + y + "," + z);
+                    assertEquals(y, BlockPos.y(pos), () -> "y of " + x + "," + y + "," + z);
+                    assertEquals(z, BlockPos.z(pos), () -> "z of " + x + "," + y + "," + z);
+                }
+            }
+        }
+    }
+
+    @Test
+    void negativeFieldsDoNotSpillIntoTheirNeighbours() {
+        // A negative y or z must not set the bits of the field above it.
+        assertEquals(BlockPos.pack(7, 0, 9) & ~0xFFFL, BlockPos.pack(7, -1, 9) & ~0xFFFL);
+        assertEquals(BlockPos.pack(7, 0, 0) >> 38, BlockPos.pack(7, 0, -1) >> 38);
+        assertEquals(-1L, BlockPos.pack(-1, -1, -1));
+    }
+
+    @Test
+    void sqlUnpacksLikeJava() throws SQLException {
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("CREATE TABLE positions (pos INTEGER NOT NULL);");
+            }
+            try (PreparedStatement insert = c.prepareStatement("INSERT INTO positions VALUES (?);")) {
+                for (int x : HORIZONTAL) {
+                    for (int y : VERTICAL) {
+                        for (int z : HORIZONTAL) {
+                            insert.setLong(1, BlockPos.pack(x, y, z));
+                            insert.addBatch();
+                        }
+                    }
+                }
+                insert.executeBatch();
+            }
+
+            int checked = 0;
+            try (Statement stmt = c.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT pos, %s, %s, %s FROM positions;"
+                         .formatted(BlockPos.SQL_X, BlockPos.SQL_Y, BlockPos.SQL_Z))) {
+                while (rs.next()) {
+                    long pos = rs.getLong(1);
+                    assertEquals(BlockPos.x(pos), rs.getInt(2), () -> "x of " + pos);
+                    assertEquals(BlockPos.y(pos), rs.getInt(3), () -> "y of " + pos);
+                    assertEquals(BlockPos.z(pos), rs.getInt(4), () -> "z of " + pos);
+                    checked++;
+                }
+            }
+            assertEquals(HORIZONTAL.length * VERTICAL.length * HORIZONTAL.length, checked);
+        }
+    }
+
+    @Test
+    void sqlRangeOnUnpackedCoordinatesFindsTheBox() throws SQLException {
+        // The rollback box is matched on the unpacked coordinates, including one that straddles zero.
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("CREATE TABLE positions (pos INTEGER NOT NULL);");
+            }
+            try (PreparedStatement insert = c.prepareStatement("INSERT INTO positions VALUES (?);")) {
+                for (int x = -3; x <= 3; x++) {
+                    for (int y = -64; y <= -62; y++) {
+                        for (int z = -3; z <= 3; z++) {
+                            insert.setLong(1, BlockPos.pack(x, y, z));
+                            insert.addBatch();
+                        }
+                    }
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement query = c.prepareStatement("""
+                    SELECT COUNT(*) FROM positions
+                    WHERE %s BETWEEN ? AND ? AND %s BETWEEN ? AND ? AND %s BETWEEN ? AND ?;
+                    """.formatted(BlockPos.SQL_X, BlockPos.SQL_Y, BlockPos.SQL_Z))) {
+                int[] bounds = {-1, 1, -64, -63, -2, 0};
+                for (int i = 0; i < bounds.length; i++) {
+                    query.setInt(i + 1, bounds[i]);
+                }
+                try (ResultSet rs = query.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(3 * 2 * 3, rs.getInt(1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.markski.blocklog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+final class IngestRingTest {
+    private static final UUID PLAYER = new UUID(1L, 2L);
+
+    @Test
+    void roundsCapacityUpToAPowerOfTwo() {
+        assertEquals(8, new IngestRing(8).capacity());
+        assertEquals(16, new IngestRing(9).capacity());
+        assertEquals(1 << 16, new IngestRing(1 << 16).capacity());
+    }
+
+    @Test
+    void refusesClaimsBeyondCapacityUntilReleased() {
+        IngestRing ring = new IngestRing(8);
+        assertEquals(0L, ring.claim(6));
+        assertEquals(-1L, ring.claim(3));
+        assertEquals(6L, ring.claim(2));
+        ring.publishAll(0, 8);
+        ring.release(3);
+        assertEquals(8L, ring.claim(3));
+        assertEquals(-1L, ring.claim(1));
+    }
+
+    @Test
+    void readsNothingPastAnUnpublishedSlot() {
+        IngestRing ring = new IngestRing(8);
+        long start = ring.claim(3);
+        event(ring, start);
+        event(ring, start + 2);
+        ring.publish(start);
+        ring.publish(start + 2);
+        assertEquals(1, ring.readable(8));
+        event(ring, start + 1);
+        ring.publish(start + 1);
+        assertEquals(3, ring.readable(8));
+    }
+
+    @Test
+    void endsABatchBeforeARunRatherThanInsideIt() {
+        IngestRing ring = new IngestRing(16);
+        publishSingles(ring, 2);
+        publishRun(ring, 4);
+        publishSingles(ring, 1);
+
+        assertEquals(2, ring.wholeRuns(2, Long.MAX_VALUE));
+        assertEquals(2, ring.wholeRuns(3, Long.MAX_VALUE));
+        assertEquals(2, ring.wholeRuns(5, Long.MAX_VALUE));
+        assertEquals(6, ring.wholeRuns(6, Long.MAX_VALUE));
+        assertEquals(7, ring.wholeRuns(7, Long.MAX_VALUE));
+    }
+
+    @Test
+    void takesAWholeRunAtTheHeadWhenItIsSynced() {
+        IngestRing ring = new IngestRing(16);
+        publishRun(ring, 5);
+        publishSingles(ring, 1);
+
+        // A batch smaller than the run grows to all of it, as long as all of it may be written.
+        assertEquals(5, ring.wholeRuns(2, Long.MAX_VALUE));
+        assertEquals(5, ring.wholeRuns(2, 5));
+        assertEquals(0, ring.wholeRuns(2, 4));
+        assertEquals(0, ring.wholeRuns(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void keepsARunWholeAcrossTheWrap() {
+        IngestRing ring = new IngestRing(8);
+        publishSingles(ring, 6);
+        ring.release(6);
+
+        // Positions 6 to 10 land in slots 6, 7, 0, 1 and 2.
+        long start = publishRun(ring, 5);
+        assertEquals(6L, start);
+        assertEquals(5, ring.readable(8));
+        assertEquals(0, ring.wholeRuns(3, 2));
+        assertEquals(5, ring.wholeRuns(3, Long.MAX_VALUE));
+        assertEquals(5, ring.wholeRuns(5, Long.MAX_VALUE));
+
+        ring.release(5);
+        // The released slots no longer belong to a run.
+        publishSingles(ring, 3);
+        assertEquals(1, ring.wholeRuns(1, Long.MAX_VALUE));
+        assertEquals(3, ring.wholeRuns(3, Long.MAX_VALUE));
+    }
+
+    @Test
+    void trimsToTheRunBoundaryAcrossTheWrap() {
+        IngestRing ring = new IngestRing(8);
+        publishSingles(ring, 5);
+        ring.release(5);
+
+        // Slots 5, 6 and 7 hold single records, then a run fills slots 0 to 3.
+        publishSingles(ring, 3);
+        publishRun(ring, 4);
+        assertEquals(7, ring.readable(8));
+        assertEquals(3, ring.wholeRuns(4, Long.MAX_VALUE));
+        assertEquals(3, ring.wholeRuns(6, Long.MAX_VALUE));
+        assertEquals(7, ring.wholeRuns(7, Long.MAX_VALUE));
+    }
+
+    @Test
+    void releasesTheBytesItCounted() {
+        IngestRing ring = new IngestRing(8);
+        publishSingles(ring, 3);
+        long queued = ring.retainedBytes();
+        assertEquals(3 * (IngestRing.estimateBytes("Builder") + IngestRing.estimateBytes("world")
+                + IngestRing.estimateBytes("STONE") + IngestRing.estimateBytes("minecraft:stone")), queued);
+        ring.release(3);
+        assertEquals(0L, ring.retainedBytes());
+    }
+
+    private static void publishSingles(IngestRing ring, int count) {
+        for (int i = 0; i < count; i++) {
+            long position = ring.claim(1);
+            event(ring, position);
+            ring.publish(position);
+        }
+    }
+
+    private static long publishRun(IngestRing ring, int count) {
+        long start = ring.claim(count);
+        for (int i = 0; i < count; i++) {
+            event(ring, start + i);
+        }
+        ring.publishRun(start, count);
+        return start;
+    }
+
+    private static void event(IngestRing ring, long position) {
+        ring.putEvent(position, position + 1, PLAYER, "Builder", "world", 0, 64, 0, "STONE", "minecraft:stone",
+                null, null, BlockActionType.PLACED.getCode(), 0, position);
+    }
+}
@@ -0,0 +1,180 @@
+package org.markski.blocklog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+final class RecordCodecTest {
+    private static final UUID PLAYER = new UUID(3L, 4L);
+
+    @TempDir
+    File directory;
+
+    @Test
+    void replaysASegmentWithAGarbageTail() throws IOException {
+        File segment = new File(directory, "journal-0000000000000000000.bin");
+        writeEvents(segment, 5);
+        long whole = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            // A length far beyond the file, as a torn or reused block would leave.
+            out.write(new byte[] {0x7F, 0x12, 0x34, 0x56, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        }
+
+        assertEquals(5, RecordCodec.trimToLastRecord(segment));
+        assertEquals(whole, segment.length());
+
+        IngestRing ring = new IngestRing(8);
+        replay(segment, 5, ring);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(100L + i, ring.id(i));
+            assertEquals(PLAYER, ring.playerUuid(i));
+            assertEquals("world", ring.world(i));
+            assertEquals(i, ring.x(i));
+            assertEquals(-64, ring.y(i));
+            assertEquals(-i, ring.z(i));
+            assertEquals("STONE", ring.type(i));
+            assertEquals(1_000L + i, ring.createdAt(i));
+        }
+    }
+
+    @Test
+    void stopsAtAZeroOrNegativeLength() throws IOException {
+        for (int length : new int[] {0, -1, Integer.MIN_VALUE}) {
+            File segment = new File(directory, "length" + length + ".bin");
+            writeEvents(segment, 2);
+            long whole = segment.length();
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(segment, true))) {
+                out.writeInt(length);
+                out.writeInt(0);
+                out.write(new byte[64]);
+            }
+
+            assertEquals(2, RecordCodec.trimToLastRecord(segment));
+            assertEquals(whole, segment.length());
+        }
+    }
+
+    @Test
+    void stopsAtTheFirstFrameWhoseChecksumFails() throws IOException {
+        File segment = new File(directory, "corrupt.bin");
+        writeEvents(segment, 4);
+        long frame = segment.length() / 4;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            // Flips the last payload byte of the second record; the records after it cannot be trusted either.
+            raf.seek(2 * frame - 1);
+            int last = raf.read();
+            raf.seek(2 * frame - 1);
+            raf.write(last ^ 0x01);
+        }
+
+        assertEquals(1, RecordCodec.trimToLastRecord(segment));
+        assertEquals(frame, segment.length());
+    }
+
+    @Test
+    void dropsARecordCutShort() throws IOException {
+        File segment = new File(directory, "torn.bin");
+        writeEvents(segment, 3);
+        long frame = segment.length() / 3;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(3 * frame - 5);
+        }
+
+        assertEquals(2, RecordCodec.trimToLastRecord(segment));
+        assertEquals(2 * frame, segment.length());
+    }
+
+    @Test
+    void rejectsALengthBeyondTheFile() throws IOException {
+        File segment = new File(directory, "short.bin");
+        writeEvents(segment, 1);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(segment))) {
+            assertThrows(IOException.class, () -> RecordCodec.readFrame(in, segment.length() - 1));
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(segment))) {
+            RecordCodec.readFrame(in, segment.length());
+            assertThrows(EOFException.class, () -> RecordCodec.readFrame(in, 0));
+        }
+    }
+
+    @Test
+    void framesCarryTheirPayloadUnchanged() throws IOException {
+        RecordCodec.FrameBuffer record = new RecordCodec.FrameBuffer(16);
+        record.write(new byte[] {9, 8, 7});
+        File file = new File(directory, "frame.bin");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            record.writeFrame(out);
+        }
+
+        assertEquals(record.frameBytes(), file.length());
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            assertArrayEquals(new byte[] {9, 8, 7}, RecordCodec.readFrame(in, file.length()));
+        }
+        assertThrows(IOException.class, () -> new RecordCodec.FrameBuffer(16).writeFrame(
+                new DataOutputStream(OutputStream.nullOutputStream())));
+    }
+
+    @Test
+    void keepsTheParentEventTimeOfATransaction() throws IOException {
+        // The parent's time decides the partition, and may lie well before the transaction's own.
+        File segment = new File(directory, "transaction.bin");
+        RecordCodec.FrameBuffer record = new RecordCodec.FrameBuffer(256);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(segment))) {
+            RecordCodec.writeTransaction(new DataOutputStream(record), 200L, 100L, 5_000L, PLAYER, "Builder",
+                    "world", 1, 2, 3, "DIAMOND", -4, 9_000L);
+            record.writeFrame(out);
+        }
+
+        IngestRing ring = new IngestRing(8);
+        replay(segment, 1, ring);
+        assertEquals(IngestRing.TRANSACTION, ring.kind(0));
+        assertEquals(200L, ring.id(0));
+        assertEquals(100L, ring.eventId(0));
+        assertEquals(5_000L, ring.eventCreatedAt(0));
+        assertEquals("DIAMOND", ring.type(0));
+        assertEquals(-4, ring.delta(0));
+        assertEquals(9_000L, ring.createdAt(0));
+    }
+
+    private static void writeEvents(File file, int count) throws IOException {
+        RecordCodec.FrameBuffer record = new RecordCodec.FrameBuffer(256);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < count; i++) {
+                record.reset();
+                RecordCodec.writeEvent(recordOut, 100L + i, PLAYER, "Builder", "world", i, -64, -i, "STONE",
+                        null, null, BlockActionType.BROKEN.getCode(), 0, 1_000L + i);
+                record.writeFrame(out);
+            }
+        }
+    }
+
+    private static void replay(File segment, long records, IngestRing ring) throws IOException {
+        long remaining = segment.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)))) {
+            for (long i = 0; i < records; i++) {
+                byte[] payload = RecordCodec.readFrame(in, remaining);
+                remaining -= RecordCodec.FRAME_HEADER_BYTES + payload.length;
+                long position = ring.claim(1);
+                RecordCodec.readInto(payload, ring, position);
+                ring.publish(position);
+            }
+        }
+        assertEquals(records, ring.readable(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,137 @@
+package org.markski.blocklog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class SpillFileTest {
+    private static final UUID PLAYER = new UUID(5L, 6L);
+
+    @TempDir
+    File directory;
+
+    @Test
+    void keepsDrainedRecordsUntilTheyAreReleased() throws IOException {
+        SpillFile spill = new SpillFile(new File(directory, "queue-spill.bin"), Long.MAX_VALUE);
+        append(spill, 0, 3);
+        spill.sync();
+        long length = spillLength();
+        IngestRing ring = new IngestRing(8);
+
+        assertEquals(3, spill.drainInto(ring, Long.MAX_VALUE));
+        // New records go to the ring again, but the moved ones are not committed yet.
+        assertFalse(spill.isActive());
+        assertEquals(length, spillLength());
+
+        spill.released(2);
+        assertEquals(length, spillLength());
+        spill.released(3);
+        assertEquals(0, spillLength());
+        spill.close();
+    }
+
+    @Test
+    void readsRecordsAppendedAfterADrainFromWhereItLeftOff() throws IOException {
+        SpillFile spill = new SpillFile(new File(directory, "queue-spill.bin"), Long.MAX_VALUE);
+        IngestRing ring = new IngestRing(8);
+        append(spill, 0, 2);
+        assertEquals(2, spill.drainInto(ring, Long.MAX_VALUE));
+        append(spill, 2, 2);
+        assertTrue(spill.isActive());
+
+        // A commit of the first two does not empty a file that still holds unread records.
+        spill.released(2);
+        assertEquals(2, spill.drainInto(ring, Long.MAX_VALUE));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, ring.id(i));
+        }
+        spill.released(4);
+        assertEquals(0, spillLength());
+        spill.close();
+    }
+
+    @Test
+    void waitsForRoomInTheRingWithoutLosingItsPlace() throws IOException {
+        SpillFile spill = new SpillFile(new File(directory, "queue-spill.bin"), Long.MAX_VALUE);
+        IngestRing ring = new IngestRing(4);
+        append(spill, 0, 6);
+
+        assertEquals(4, spill.drainInto(ring, Long.MAX_VALUE));
+        assertTrue(spill.isActive());
+        ring.release(4);
+        assertEquals(2, spill.drainInto(ring, Long.MAX_VALUE));
+        assertEquals(4L, ring.id(4));
+        assertEquals(5L, ring.id(5));
+        spill.close();
+    }
+
+    @Test
+    void cutsTheFileAtAnUnreadableRecord() throws IOException {
+        SpillFile spill = new SpillFile(new File(directory, "queue-spill.bin"), Long.MAX_VALUE);
+        append(spill, 0, 4);
+        spill.sync();
+        long frame = spillLength() / 4;
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, "queue-spill.bin"), "rw")) {
+            raf.seek(3 * frame - 1);
+            int last = raf.read();
+            raf.seek(3 * frame - 1);
+            raf.write(last ^ 0x01);
+        }
+        IngestRing ring = new IngestRing(8);
+
+        assertThrows(IOException.class, () -> spill.drainInto(ring, Long.MAX_VALUE));
+        // The two records before the bad one were moved and stay on disk until they commit.
+        assertEquals(2, ring.readable(Integer.MAX_VALUE));
+        assertFalse(spill.isActive());
+        assertEquals(2 * frame, spillLength());
+
+        append(spill, 10, 1);
+        assertEquals(1, spill.drainInto(ring, Long.MAX_VALUE));
+        assertEquals(10L, ring.id(2));
+        spill.released(3);
+        assertEquals(0, spillLength());
+        spill.close();
+    }
+
+    @Test
+    void recoversTheRecordsBeforeAGarbageTail() throws IOException {
+        File file = new File(directory, "queue-spill.bin");
+        SpillFile spill = new SpillFile(file, Long.MAX_VALUE);
+        append(spill, 0, 3);
+        spill.sync();
+        spill.close();
+        long length = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {0x40, 0, 0, 0, 0x11, 0x22});
+        }
+
+        SpillFile recovered = new SpillFile(file, Long.MAX_VALUE);
+        assertEquals(3, recovered.recover());
+        assertEquals(length, file.length());
+        IngestRing ring = new IngestRing(8);
+        assertEquals(3, recovered.drainInto(ring, Long.MAX_VALUE));
+        assertEquals(2L, ring.id(2));
+        recovered.close();
+    }
+
+    private static void append(SpillFile spill, long firstId, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(spill.appendEvent(firstId + i, PLAYER, "Builder", "world", i, 70, i, "DIRT", null, null,
+                    BlockActionType.PLACED.getCode(), 0, firstId + i));
+        }
+    }
+
+    private long spillLength() {
+        return new File(directory, "queue-spill.bin").length();
+    }
+}